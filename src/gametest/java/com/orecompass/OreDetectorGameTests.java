@@ -0,0 +1,509 @@
+package com.orecompass;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.gametest.framework.GameTest;
+import net.minecraft.gametest.framework.GameTestHelper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.GameType;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.neoforged.neoforge.gametest.GameTestHolder;
+import net.neoforged.neoforge.gametest.PrefixGameTestTemplate;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Correctness and performance checks of the ore detector in a real server level.
+ * Run with the gameTestServer run; every test builds its ore field in an empty 32x32x32 area
+ * and scans at most RANGE blocks around its center, so neighbouring tests cannot interfere.
+ * The scanned cube is passed in directly rather than derived from the level, and the worldgen filter is off,
+ * since the test area may sit outside the heights and biomes the test world generates the ores in.
+ */
+@GameTestHolder(OreCompass.MODID)
+@PrefixGameTestTemplate(false)
+public class OreDetectorGameTests {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final String EMPTY = "empty";
+    private static final BlockPos CENTER = new BlockPos(16, 16, 16);
+    private static final int RANGE = 12;
+
+    // Budgets count blocks read and bytes allocated rather than time, so a slow or busy machine cannot fail them
+    private static final int WARMUP_SCANS = 20;
+    private static final int TIMED_SCANS = 100;
+    private static final long BYTES_PER_SCAN_BUDGET = 256 * 1024;
+    // Tests that change the config run in a batch of their own, so no other test sees it changed
+    private static final String CONFIG_BATCH = "oreCompassConfig";
+    private static final int FAR_OFFSET = 100_000;
+
+    @GameTest(template = EMPTY)
+    public static void noOres(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        OreDetector.OreHit hit = scan(helper, OreMatcher.forTier(3));
+        helper.assertTrue(hit == null, "Expected no ore, found " + hit);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void sparseNearest(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        helper.setBlock(CENTER.offset(9, 0, 0), Blocks.DIAMOND_ORE);
+        helper.setBlock(CENTER.offset(0, -3, 4), Blocks.DIAMOND_ORE);
+        helper.setBlock(CENTER.offset(-7, 2, -6), Blocks.DIAMOND_ORE);
+
+        assertHit(helper, scan(helper, OreMatcher.of(OreType.DIAMOND)), CENTER.offset(0, -3, 4), OreType.DIAMOND);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void priorityBeatsDistance(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        helper.setBlock(CENTER.offset(1, 0, 0), Blocks.COAL_ORE);
+        helper.setBlock(CENTER.offset(0, 2, 0), Blocks.IRON_ORE);
+        helper.setBlock(CENTER.offset(0, 0, -10), Blocks.DIAMOND_ORE);
+        helper.setBlock(CENTER.offset(6, 0, 0), Blocks.EMERALD_ORE);
+
+        // Diamond has the best priority of tier 2, so it wins however far it is
+        assertHit(helper, scan(helper, OreMatcher.forTier(2)), CENTER.offset(0, 0, -10), OreType.DIAMOND);
+        // Tier 1 cannot see diamond or emerald, and iron outranks the closer coal
+        assertHit(helper, scan(helper, OreMatcher.forTier(1)), CENTER.offset(0, 2, 0), OreType.IRON);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void scanResultFallsBack(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        helper.setBlock(CENTER.offset(1, 0, 0), Blocks.COAL_ORE);
+        helper.setBlock(CENTER.offset(0, 0, -10), Blocks.DIAMOND_ORE);
+        helper.setBlock(CENTER.offset(0, 5, 0), Blocks.DIAMOND_ORE);
+
+        OreMatcher matcher = OreMatcher.forTier(2);
+        BoundingBox bounds = getScanBounds(helper);
+        BlockPos center = helper.absolutePos(CENTER);
+        ScanResult result = unfiltered(() -> OreDetector.scan(OreDetector.sourceFor(helper.getLevel()), ScanShape.cube(center, RANGE), bounds, matcher));
+        helper.assertTrue(result.getCount(OreType.DIAMOND) == 2 && result.getCount(OreType.COAL) == 1,
+                "Expected 2 diamond and 1 coal, counted " + result.getCount(OreType.DIAMOND) + " and " + result.getCount(OreType.COAL));
+
+        // The pass picks what the nearest search picks, then falls back through the rest without scanning again
+        assertHit(helper, relative(helper, result.pick(center, bounds, matcher)), CENTER.offset(0, 5, 0), OreType.DIAMOND);
+        result.remove(helper.absolutePos(CENTER.offset(0, 5, 0)));
+        assertHit(helper, relative(helper, result.pick(center, bounds, matcher)), CENTER.offset(0, 0, -10), OreType.DIAMOND);
+        result.remove(helper.absolutePos(CENTER.offset(0, 0, -10)));
+        assertHit(helper, relative(helper, result.pick(center, bounds, matcher)), CENTER.offset(1, 0, 0), OreType.COAL);
+        helper.assertTrue(result.canPick(bounds, OreMatcher.of(OreType.COAL)), "Expected the coal-only answer to be known");
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void targetCheckedOnlyAfterChange(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        BlockPos target = CENTER.offset(3, 0, 0);
+        helper.setBlock(target, Blocks.IRON_ORE);
+
+        CompassTracker tracker = CompassTracker.get(helper.makeMockPlayer(GameType.SURVIVAL), 1, null, false);
+        BlockPos center = helper.absolutePos(CENTER);
+        long gameTime = helper.getLevel().getGameTime();
+        tracker.recordScan(helper.getLevel(), ScanShape.cube(center, RANGE), getScanBounds(helper),
+                new OreDetector.OreHit(helper.absolutePos(target), OreType.IRON));
+        tracker.markTargetChecked(gameTime);
+        try {
+            helper.assertFalse(tracker.isTargetCheckDue(gameTime), "Target check due right after checking it");
+            // Only a change at the target itself marks it
+            helper.setBlock(target.above(), Blocks.DIRT);
+            helper.assertFalse(tracker.isTargetCheckDue(gameTime), "Target check due after a neighbour changed");
+            helper.setBlock(target, Blocks.STONE);
+            helper.assertTrue(tracker.isTargetCheckDue(gameTime), "Target check not due after the target was mined");
+        } finally {
+            tracker.resetScan();
+        }
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void shapesLimitTheVolume(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        helper.setBlock(CENTER.offset(10, 10, 10), Blocks.DIAMOND_ORE);
+        helper.setBlock(CENTER.offset(0, 0, -3), Blocks.DIAMOND_ORE);
+        helper.setBlock(CENTER.offset(1, 0, 11), Blocks.DIAMOND_ORE);
+
+        OreMatcher matcher = OreMatcher.of(OreType.DIAMOND);
+        BlockPos center = helper.absolutePos(CENTER);
+        ScanShape cube = ScanShape.cube(center, RANGE);
+        ScanShape sphere = ScanShape.sphere(center, RANGE);
+        // Looking straight along +Z
+        ScanShape cone = ScanShape.cone(center, 0, 0, RANGE, 20, 5);
+        ScanResult inCube = unfiltered(() -> OreDetector.scan(OreDetector.sourceFor(helper.getLevel()), cube, getScanBounds(helper), matcher));
+        ScanResult inSphere = unfiltered(() -> OreDetector.scan(OreDetector.sourceFor(helper.getLevel()), sphere, getScanBounds(helper), matcher));
+        ScanResult inCone = unfiltered(() -> OreDetector.scan(OreDetector.sourceFor(helper.getLevel()), cone, cone.getBox(), matcher));
+
+        // The corner ore is inside the cube but past the sphere's range, and only the ore ahead is inside the cone
+        helper.assertTrue(inCube.getCount(OreType.DIAMOND) == 3, "Expected 3 diamonds in the cube, counted " + inCube.getCount(OreType.DIAMOND));
+        helper.assertTrue(inSphere.getCount(OreType.DIAMOND) == 2, "Expected 2 diamonds in the sphere, counted " + inSphere.getCount(OreType.DIAMOND));
+        helper.assertTrue(inCone.getCount(OreType.DIAMOND) == 1, "Expected 1 diamond in the cone, counted " + inCone.getCount(OreType.DIAMOND));
+        assertHit(helper, relative(helper, inCone.pick(center, cone.getBox(), matcher)), CENTER.offset(1, 0, 11), OreType.DIAMOND);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void savedOresAreCheckedOnLoad(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        // Same column, so both ores are in the same chunk
+        BlockPos kept = CENTER.offset(0, 1, 0);
+        BlockPos mined = CENTER.offset(0, 3, 0);
+        helper.setBlock(kept, Blocks.DIAMOND_ORE);
+        helper.setBlock(mined, Blocks.DIAMOND_ORE);
+
+        OreIndex index = OreIndex.get(helper.getLevel());
+        helper.assertTrue(index != null, "Expected the ore index to be on");
+        OreMatcher matcher = OreMatcher.of(OreType.DIAMOND);
+        ChunkPos chunkPos = new ChunkPos(helper.absolutePos(kept));
+        helper.assertTrue(countIndexed(helper, matcher) == 2, "Expected 2 indexed diamonds");
+
+        // A save that missed a later change must not be trusted for that section
+        CompoundTag stale = new CompoundTag();
+        index.writeChunk(chunkPos, stale);
+        helper.setBlock(mined, Blocks.STONE);
+        index.unloadChunk(chunkPos);
+        index.readChunk(chunkPos, stale);
+        int afterStale = countIndexed(helper, matcher);
+        helper.assertTrue(afterStale == 1, "Expected 1 diamond after loading a stale save, counted " + afterStale);
+
+        // An up to date save is taken as it is
+        CompoundTag current = new CompoundTag();
+        index.writeChunk(chunkPos, current);
+        index.unloadChunk(chunkPos);
+        index.readChunk(chunkPos, current);
+        int afterCurrent = countIndexed(helper, matcher);
+        helper.assertTrue(afterCurrent == 1, "Expected 1 diamond after loading a current save, counted " + afterCurrent);
+
+        // An ore placed without a block update is missing from the save, so the section must be scanned again
+        CompoundTag silent = new CompoundTag();
+        index.writeChunk(chunkPos, silent);
+        helper.getLevel().setBlock(helper.absolutePos(CENTER.offset(0, 2, 0)), Blocks.DIAMOND_ORE.defaultBlockState(), Block.UPDATE_CLIENTS);
+        index.unloadChunk(chunkPos);
+        index.readChunk(chunkPos, silent);
+        int afterSilent = countIndexed(helper, matcher);
+        helper.assertTrue(afterSilent == 2, "Expected 2 diamonds after loading a save that missed a silent change, counted " + afterSilent);
+        assertHit(helper, scan(helper, matcher), kept, OreType.DIAMOND);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void mixedDeepslateAndNether(GameTestHelper helper) {
+        fillStone(helper, Blocks.DEEPSLATE);
+        helper.setBlock(CENTER.offset(2, 0, 0), Blocks.DEEPSLATE_DIAMOND_ORE);
+        helper.setBlock(CENTER.offset(0, 0, 3), Blocks.NETHER_GOLD_ORE);
+        helper.setBlock(CENTER.offset(-8, 0, 0), Blocks.NETHERRACK);
+        helper.setBlock(CENTER.offset(-8, 1, 0), Blocks.NETHER_QUARTZ_ORE);
+        helper.setBlock(CENTER.offset(0, -9, 0), Blocks.ANCIENT_DEBRIS);
+
+        assertHit(helper, scan(helper, OreMatcher.forTier(3)), CENTER.offset(0, -9, 0), OreType.ANCIENT_DEBRIS);
+        assertHit(helper, scan(helper, OreMatcher.forTier(2)), CENTER.offset(2, 0, 0), OreType.DIAMOND);
+        assertHit(helper, scan(helper, OreMatcher.of(OreType.GOLD)), CENTER.offset(0, 0, 3), OreType.GOLD);
+        assertHit(helper, scan(helper, OreMatcher.of(OreType.NETHER_QUARTZ)), CENTER.offset(-8, 1, 0), OreType.NETHER_QUARTZ);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void denseFieldMatchesBruteForce(GameTestHelper helper) {
+        fillOres(helper, 0.05);
+        checkAgainstBruteForce(helper);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY, batch = CONFIG_BATCH)
+    public static void denseFieldMatchesBruteForceWithoutIndex(GameTestHelper helper) {
+        fillOres(helper, 0.05);
+        // The plain section scan, which is what runs when the index and cache are off
+        boolean useOreIndex = Config.useOreIndex;
+        int scanCacheSize = Config.scanCacheSize;
+        Config.useOreIndex = false;
+        Config.scanCacheSize = 0;
+        try {
+            checkAgainstBruteForce(helper);
+        } finally {
+            Config.useOreIndex = useOreIndex;
+            Config.scanCacheSize = scanCacheSize;
+        }
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY)
+    public static void parallelScanMatchesSinglePass(GameTestHelper helper) {
+        fillOres(helper, 0.05);
+
+        OreMatcher matcher = OreMatcher.forTier(3);
+        BlockPos center = helper.absolutePos(CENTER);
+        ScanShape shape = ScanShape.cube(center, RANGE);
+        BoundingBox bounds = getScanBounds(helper);
+        SectionSnapshot snapshot = unfiltered(() -> SectionSnapshot.capture(helper.getLevel(), bounds, shape, matcher));
+        ScanResult single = unfiltered(() -> OreDetector.scan(snapshot, shape, bounds, matcher));
+        // One section per task splits the scan as finely as it goes
+        ScanResult parallel = unfiltered(() -> ParallelOreScanner.scan(snapshot, shape, bounds, matcher, 1));
+
+        for (OreType oreType : matcher.getOres()) {
+            helper.assertTrue(parallel.getCount(oreType) == single.getCount(oreType),
+                    oreType + " counted " + parallel.getCount(oreType) + " split, " + single.getCount(oreType) + " in one pass");
+            // Ores at the same distance may be kept in either order
+            List<Double> parallelDistances = getDistances(parallel.getHits(oreType), center);
+            List<Double> singleDistances = getDistances(single.getHits(oreType), center);
+            helper.assertTrue(parallelDistances.equals(singleDistances),
+                    oreType + " kept hits at distance² " + parallelDistances + " split, " + singleDistances + " in one pass");
+        }
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY, timeoutTicks = 200, batch = CONFIG_BATCH)
+    public static void denseFieldWithinBudget(GameTestHelper helper) {
+        fillOres(helper, 0.05);
+        BoundingBox bounds = getScanBounds(helper);
+        // Filling the field dropped any ores saved for its sections, so indexing scans each section once,
+        // and after that the index answers without reading any block
+        long sections = (long) sectionSpan(bounds.minX(), bounds.maxX()) * sectionSpan(bounds.minY(), bounds.maxY()) * sectionSpan(bounds.minZ(), bounds.maxZ());
+        checkBudget(helper, "index", OreMatcher.forTier(3), sections * LevelChunkSection.SECTION_SIZE, 0);
+
+        // Also check the plain section scan, which is what runs when the index and cache are off.
+        // The nearest ore is found in the first pass, which reads each block of the cube at most once.
+        boolean useOreIndex = Config.useOreIndex;
+        int scanCacheSize = Config.scanCacheSize;
+        Config.useOreIndex = false;
+        Config.scanCacheSize = 0;
+        try {
+            long volume = (long) bounds.getXSpan() * bounds.getYSpan() * bounds.getZSpan();
+            checkBudget(helper, "sections", OreMatcher.forTier(3), volume, volume);
+        } finally {
+            Config.useOreIndex = useOreIndex;
+            Config.scanCacheSize = scanCacheSize;
+        }
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY, timeoutTicks = 200, batch = CONFIG_BATCH)
+    public static void emptyFieldWithinBudget(GameTestHelper helper) {
+        fillStone(helper, Blocks.STONE);
+        // Palettes without ores let every section be skipped unread
+        checkBudget(helper, "empty", OreMatcher.forTier(3), 0, 0);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY, batch = CONFIG_BATCH)
+    public static void unloadedChunksStayUnloaded(GameTestHelper helper) {
+        // Far enough from the test area that nothing else keeps the chunk loaded
+        BlockPos far = helper.absolutePos(CENTER).offset(FAR_OFFSET, 0, 0);
+        int chunkX = SectionPos.blockToSectionCoord(far.getX());
+        int chunkZ = SectionPos.blockToSectionCoord(far.getZ());
+        helper.assertFalse(helper.getLevel().hasChunk(chunkX, chunkZ), "Expected the far chunk not to be loaded yet");
+
+        boolean loadedChunksOnly = Config.loadedChunksOnly;
+        Config.loadedChunksOnly = true;
+        try {
+            BoundingBox bounds = BoundingBox.fromCorners(far.offset(-RANGE, -RANGE, -RANGE), far.offset(RANGE, RANGE, RANGE));
+            OreDetector.OreHit hit = unfiltered(() -> OreDetector.findNearestHit(OreDetector.sourceFor(helper.getLevel()), far, bounds, OreMatcher.forTier(3)));
+            helper.assertTrue(hit == null, "Expected nothing from an unloaded chunk, found " + hit);
+        } finally {
+            Config.loadedChunksOnly = loadedChunksOnly;
+        }
+        helper.assertFalse(helper.getLevel().hasChunk(chunkX, chunkZ), "Scanning loaded the far chunk");
+        helper.succeed();
+    }
+
+    @Nullable
+    private static OreDetector.OreHit scan(GameTestHelper helper, OreMatcher matcher) {
+        return relative(helper, unfiltered(() -> OreDetector.findNearestHit(
+                OreDetector.sourceFor(helper.getLevel()), helper.absolutePos(CENTER), getScanBounds(helper), matcher)));
+    }
+
+    private static int countIndexed(GameTestHelper helper, OreMatcher matcher) {
+        return unfiltered(() -> OreDetector.countOres(OreDetector.sourceFor(helper.getLevel()), getScanBounds(helper), matcher));
+    }
+
+    /**
+     * Turn a hit in level coordinates into test coordinates
+     */
+    @Nullable
+    private static OreDetector.OreHit relative(GameTestHelper helper, @Nullable OreDetector.OreHit hit) {
+        return hit != null ? new OreDetector.OreHit(helper.relativePos(hit.pos()), hit.oreType()) : null;
+    }
+
+    /**
+     * Run a scan with the worldgen filter off
+     */
+    private static <T> T unfiltered(Supplier<T> scan) {
+        boolean filterOresByWorldgen = Config.filterOresByWorldgen;
+        Config.filterOresByWorldgen = false;
+        try {
+            return scan.get();
+        } finally {
+            Config.filterOresByWorldgen = filterOresByWorldgen;
+        }
+    }
+
+    /**
+     * Get the cube of RANGE blocks around the center, in level coordinates
+     */
+    private static BoundingBox getScanBounds(GameTestHelper helper) {
+        return BoundingBox.fromCorners(helper.absolutePos(CENTER.offset(-RANGE, -RANGE, -RANGE)), helper.absolutePos(CENTER.offset(RANGE, RANGE, RANGE)));
+    }
+
+    private static List<Double> getDistances(List<BlockPos> hits, BlockPos center) {
+        List<Double> distances = new ArrayList<>(hits.size());
+        for (BlockPos hit : hits) {
+            distances.add(center.distSqr(hit));
+        }
+        return distances;
+    }
+
+    private static void assertHit(GameTestHelper helper, @Nullable OreDetector.OreHit hit, BlockPos expectedPos, OreType expectedOre) {
+        helper.assertTrue(hit != null && hit.pos().equals(expectedPos) && hit.oreType() == expectedOre,
+                "Expected " + expectedOre + " at " + expectedPos + ", found " + hit);
+    }
+
+    /**
+     * Scan the field around the center, failing if a scan reads more blocks or allocates more than the budget.
+     * The first scan runs with the index of the field dropped, so it pays for indexing the sections it reaches.
+     * The time is only logged, since it depends on the machine.
+     */
+    private static void checkBudget(GameTestHelper helper, String name, OreMatcher matcher, long coldBlocksBudget, long blocksPerScanBudget) {
+        BlockPos center = helper.absolutePos(CENTER);
+        BoundingBox bounds = getScanBounds(helper);
+        OreIndex index = OreIndex.get(helper.getLevel());
+        if (index != null) {
+            for (int chunkX = SectionPos.blockToSectionCoord(bounds.minX()); chunkX <= SectionPos.blockToSectionCoord(bounds.maxX()); chunkX++) {
+                for (int chunkZ = SectionPos.blockToSectionCoord(bounds.minZ()); chunkZ <= SectionPos.blockToSectionCoord(bounds.maxZ()); chunkZ++) {
+                    index.unloadChunk(new ChunkPos(chunkX, chunkZ));
+                }
+            }
+        }
+        long coldStartBlocks = ScanMetrics.getBlocks();
+        OreDetector.findNearestHit(OreDetector.sourceFor(helper.getLevel()), center, bounds, matcher);
+        long coldBlocks = ScanMetrics.getBlocks() - coldStartBlocks;
+
+        for (int i = 0; i < WARMUP_SCANS; i++) {
+            OreDetector.findNearestHit(OreDetector.sourceFor(helper.getLevel()), center, bounds, matcher);
+        }
+
+        long startBlocks = ScanMetrics.getBlocks();
+        long startBytes = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TIMED_SCANS; i++) {
+            OreDetector.findNearestHit(OreDetector.sourceFor(helper.getLevel()), center, bounds, matcher);
+        }
+        long nanosPerScan = (System.nanoTime() - startTime) / TIMED_SCANS;
+        long bytesPerScan = startBytes >= 0 ? (getAllocatedBytes() - startBytes) / TIMED_SCANS : -1;
+        long blocksPerScan = (ScanMetrics.getBlocks() - startBlocks) / TIMED_SCANS;
+
+        LOGGER.info("Ore scan {} ({} range): {} blocks cold, {} blocks/scan, {} bytes/scan, {} ns/scan",
+                name, RANGE, coldBlocks, blocksPerScan, bytesPerScan, nanosPerScan);
+        helper.assertTrue(coldBlocks <= coldBlocksBudget,
+                "Cold scan " + name + " read " + coldBlocks + " blocks, budget is " + coldBlocksBudget);
+        helper.assertTrue(blocksPerScan <= blocksPerScanBudget,
+                "Scan " + name + " read " + blocksPerScan + " blocks, budget is " + blocksPerScanBudget);
+        helper.assertTrue(bytesPerScan <= BYTES_PER_SCAN_BUDGET,
+                "Scan " + name + " allocated " + bytesPerScan + " bytes, budget is " + BYTES_PER_SCAN_BUDGET);
+    }
+
+    private static int sectionSpan(int min, int max) {
+        return SectionPos.blockToSectionCoord(max) - SectionPos.blockToSectionCoord(min) + 1;
+    }
+
+    /**
+     * Get the bytes allocated by this thread so far, or -1 if the JVM cannot tell
+     */
+    private static long getAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    /**
+     * Fill the scanned cube with a base block
+     */
+    private static void fillStone(GameTestHelper helper, Block block) {
+        forEachInRange(pos -> helper.setBlock(pos, block));
+    }
+
+    /**
+     * Fill the scanned cube with stone, deepslate and netherrack, with ores of every kind at the given density
+     */
+    private static void fillOres(GameTestHelper helper, double density) {
+        Random random = new Random(42L);
+        List<OreType> ores = List.of(OreType.values());
+        forEachInRange(pos -> {
+            Block base = pos.getY() < CENTER.getY() - 4 ? Blocks.DEEPSLATE : pos.getY() > CENTER.getY() + 4 ? Blocks.NETHERRACK : Blocks.STONE;
+            Block block = base;
+            if (random.nextDouble() < density) {
+                List<Block> blocks = ores.get(random.nextInt(ores.size())).getBlocks();
+                block = blocks.get(random.nextInt(blocks.size()));
+            }
+            helper.setBlock(pos, block);
+        });
+    }
+
+    private static void forEachInRange(Consumer<BlockPos> action) {
+        for (BlockPos pos : BlockPos.betweenClosed(CENTER.offset(-RANGE, -RANGE, -RANGE), CENTER.offset(RANGE, RANGE, RANGE))) {
+            action.accept(pos.immutable());
+        }
+    }
+
+    private record Expected(int priority, int distanceSqr, int count) {
+    }
+
+    /**
+     * Check the nearest ore and the ore count of each tier against {@link #bruteForce}
+     */
+    private static void checkAgainstBruteForce(GameTestHelper helper) {
+        for (int tier = 1; tier <= 3; tier++) {
+            OreMatcher matcher = OreMatcher.forTier(tier);
+            OreDetector.OreHit hit = scan(helper, matcher);
+            Expected expected = bruteForce(helper, matcher);
+
+            helper.assertTrue(hit != null, "Tier " + tier + " found nothing, expected " + expected.count + " ores");
+            int distance = (int) CENTER.distSqr(helper.relativePos(hit.pos()));
+            helper.assertTrue(hit.oreType().getPriority() == expected.priority && distance == expected.distanceSqr,
+                    "Tier " + tier + " picked " + hit + " at priority " + hit.oreType().getPriority() + " distance² " + distance
+                            + ", expected priority " + expected.priority + " distance² " + expected.distanceSqr);
+
+            int count = unfiltered(() -> OreDetector.countOres(OreDetector.sourceFor(helper.getLevel()), getScanBounds(helper), matcher));
+            helper.assertTrue(count == expected.count, "Tier " + tier + " counted " + count + ", expected " + expected.count);
+        }
+    }
+
+    /**
+     * Work out the best ore by reading every block and checking it the slow way
+     */
+    private static Expected bruteForce(GameTestHelper helper, OreMatcher matcher) {
+        int bestPriority = Integer.MAX_VALUE;
+        int bestDistance = Integer.MAX_VALUE;
+        int count = 0;
+        for (BlockPos pos : BlockPos.betweenClosed(CENTER.offset(-RANGE, -RANGE, -RANGE), CENTER.offset(RANGE, RANGE, RANGE))) {
+            BlockState state = helper.getBlockState(pos);
+            for (OreType ore : matcher.getOres()) {
+                if (ore.matches(state)) {
+                    int distance = (int) CENTER.distSqr(pos);
+                    if (ore.getPriority() < bestPriority || (ore.getPriority() == bestPriority && distance < bestDistance)) {
+                        bestPriority = ore.getPriority();
+                        bestDistance = distance;
+                    }
+                    count++;
+                    break;
+                }
+            }
+        }
+        return new Expected(bestPriority, bestDistance, count);
+    }
+}
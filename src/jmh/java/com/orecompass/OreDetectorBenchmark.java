@@ -0,0 +1,75 @@
+package com.orecompass;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per scan of the nearest-ore search and the ore count, over synthetic worlds.
+ * Run with {@code ./gradlew jmh}; the gc profiler reports the bytes allocated per scan as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OreDetectorBenchmark {
+    private static final BlockPos CENTER = BlockPos.ZERO;
+
+    @Param({"16", "32", "64", "256"})
+    public int range;
+
+    /**
+     * Chance of any single block being an ore; vanilla stone is roughly 0.01
+     */
+    @Param({"0", "0.001", "0.01"})
+    public double oreDensity;
+
+    /**
+     * Ores looked for: all of one tier, or a single tuned ore
+     */
+    @Param({"tier1", "tier3", "diamond"})
+    public String targets;
+
+    private SyntheticOreWorld world;
+    private BoundingBox bounds;
+    private OreMatcher matcher;
+
+    static {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Generate every ore kind, so that scans for one ore also have to skip the others
+        world = new SyntheticOreWorld(42L, range, oreDensity, List.of(OreType.values()));
+        bounds = SyntheticOreWorld.getScanBounds(range);
+        matcher = switch (targets) {
+            case "tier1" -> OreMatcher.forTier(1);
+            case "tier3" -> OreMatcher.forTier(3);
+            default -> OreMatcher.of(OreType.fromName(targets));
+        };
+    }
+
+    @Benchmark
+    public OreDetector.OreHit findNearestHit() {
+        return OreDetector.findNearestHit(world, CENTER, bounds, matcher);
+    }
+
+    @Benchmark
+    public int countOres() {
+        return OreDetector.countOres(world, bounds, matcher);
+    }
+}
@@ -0,0 +1,78 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generated stand-in for a level: stone above y=0 and deepslate below, with ores scattered at a fixed density.
+ * Sections are stored in the same paletted containers chunks use, so scans run through the real kernel.
+ */
+public class SyntheticOreWorld implements OreDetector.OreSource {
+    public static final int MIN_Y = -64;
+    public static final int MAX_Y = 319;
+
+    private final Long2ObjectMap<PalettedContainer<BlockState>> sections = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Generate every section within the given horizontal block radius of the origin, over the full build height
+     */
+    public SyntheticOreWorld(long seed, int radius, double oreDensity, List<OreType> ores) {
+        Random random = new Random(seed);
+        int sectionRadius = SectionPos.blockToSectionCoord(radius) + 1;
+        BlockState stone = Blocks.STONE.defaultBlockState();
+        BlockState deepslate = Blocks.DEEPSLATE.defaultBlockState();
+
+        for (int sectionX = -sectionRadius; sectionX <= sectionRadius; sectionX++) {
+            for (int sectionZ = -sectionRadius; sectionZ <= sectionRadius; sectionZ++) {
+                for (int sectionY = SectionPos.blockToSectionCoord(MIN_Y); sectionY <= SectionPos.blockToSectionCoord(MAX_Y); sectionY++) {
+                    boolean deep = sectionY < 0;
+                    PalettedContainer<BlockState> states = new PalettedContainer<>(
+                            Block.BLOCK_STATE_REGISTRY, deep ? deepslate : stone, PalettedContainer.Strategy.SECTION_STATES);
+
+                    if (!ores.isEmpty() && oreDensity > 0) {
+                        for (int i = 0; i < 4096; i++) {
+                            if (random.nextDouble() < oreDensity) {
+                                OreType ore = ores.get(random.nextInt(ores.size()));
+                                states.getAndSetUnchecked(i & 15, (i >> 8) & 15, (i >> 4) & 15, pickBlock(ore, deep).defaultBlockState());
+                            }
+                        }
+                    }
+                    sections.put(SectionPos.asLong(sectionX, sectionY, sectionZ), states);
+                }
+            }
+        }
+    }
+
+    /**
+     * Use the deepslate variant of an ore below y=0 when it has one
+     */
+    private static Block pickBlock(OreType ore, boolean deep) {
+        List<Block> blocks = ore.getBlocks();
+        return deep && blocks.size() > 1 ? blocks.get(1) : blocks.get(0);
+    }
+
+    /**
+     * Get the scan cube of the given range around the origin, clamped to the build height like a real level
+     */
+    public static BoundingBox getScanBounds(int range) {
+        return new BoundingBox(-range, Math.max(-range, MIN_Y), -range, range, Math.min(range, MAX_Y), range);
+    }
+
+    @Override
+    public int visitSection(int sectionX, int sectionY, int sectionZ, BoundingBox bounds, OreMatcher matcher, OreDetector.OreVisitor visitor) {
+        PalettedContainer<BlockState> states = sections.get(SectionPos.asLong(sectionX, sectionY, sectionZ));
+        if (states == null) {
+            return 0;
+        }
+        return OreDetector.scanStates(states, sectionX, sectionY, sectionZ, bounds, matcher, visitor);
+    }
+}
@@ -0,0 +1,89 @@
+package com.orecompass;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs compass scans on a worker thread.
+ * The server thread only copies the chunk sections that can hold a target ore; the search itself
+ * runs on those copies, so its cost no longer shows up in the server tick.
+ * Scans of levels with an {@link OreIndex} do not come here: the index can only be read on the server thread,
+ * so they go through the {@link ScanScheduler} instead.
+ */
+public class AsyncOreScanner {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Ore Compass Scanner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Start a scan for the {@link ScanResult} of the shape. Must run on the level's thread.
+     */
+    public static PendingScan submit(Level level, ScanShape shape, OreMatcher matcher) {
+        BoundingBox bounds = OreDetector.getScanBounds(level, shape, matcher);
+        CompletableFuture<ScanResult> future;
+
+        if (bounds == null) {
+            future = CompletableFuture.completedFuture(null);
+        } else {
+            SectionSnapshot snapshot = SectionSnapshot.capture(level, bounds, shape, matcher);
+            // Snapshots are never written after capture, so very large ones can be read by several threads at once
+            boolean split = ParallelOreScanner.shouldSplit(bounds);
+            future = CompletableFuture.supplyAsync(() -> split
+                    ? ParallelOreScanner.scan(snapshot, shape, bounds, matcher)
+                    : OreDetector.scan(snapshot, shape, bounds, matcher), EXECUTOR);
+            future.whenComplete((result, error) -> {
+                if (error != null) {
+                    LOGGER.error("Ore compass scan failed", error);
+                }
+            });
+        }
+
+        return new PendingScan(level.dimension(), shape, bounds, future);
+    }
+
+    /**
+     * Run the task on the scan thread once every scan submitted so far is done
+     */
+    static void afterRunningScans(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * A scan that was submitted and may still be running
+     */
+    public record PendingScan(ResourceKey<Level> dimension, ScanShape shape, @Nullable BoundingBox bounds,
+                              CompletableFuture<ScanResult> future) {
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        /**
+         * Check if the scan finished successfully and its result belongs to the given level
+         */
+        public boolean isUsableIn(Level level) {
+            return future.state() == Future.State.SUCCESS && dimension == level.dimension();
+        }
+
+        /**
+         * Get what a finished scan found, or null if none of the volume was inside the world
+         */
+        @Nullable
+        public ScanResult getResult() {
+            return future.resultNow();
+        }
+    }
+}
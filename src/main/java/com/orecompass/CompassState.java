@@ -0,0 +1,56 @@
+package com.orecompass;
+
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.DataResult;
+import com.mojang.serialization.codecs.RecordCodecBuilder;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.codec.StreamCodec;
+
+import javax.annotation.Nullable;
+import java.util.Optional;
+
+/**
+ * Immutable state of an Ore Compass stack, stored as a data component.
+ * Only what belongs to the stack itself lives here; targets are sent to the holder with
+ * {@link CompassTargetPayload}, so the stack does not change while the compass is in use.
+ */
+public record CompassState(@Nullable OreType tunedOre, boolean dowsing) {
+    public static final CompassState EMPTY = new CompassState(null, false);
+
+    private static final OreType[] ORE_TYPES = OreType.values();
+
+    public static final Codec<OreType> ORE_TYPE_CODEC = Codec.STRING.comapFlatMap(name -> {
+        OreType oreType = OreType.fromName(name);
+        return oreType != null ? DataResult.success(oreType) : DataResult.error(() -> "Unknown ore type: " + name);
+    }, OreType::getName);
+
+    public static final Codec<CompassState> CODEC = RecordCodecBuilder.create(instance ->
+            instance.group(
+                    ORE_TYPE_CODEC.optionalFieldOf("tuned_ore").forGetter(state -> Optional.ofNullable(state.tunedOre())),
+                    Codec.BOOL.optionalFieldOf("dowsing", false).forGetter(CompassState::dowsing)
+            ).apply(instance, (tunedOre, dowsing) -> new CompassState(tunedOre.orElse(null), dowsing))
+    );
+
+    // Ores are sent as ordinal + 1 so that 0 can stand for none
+    public static final StreamCodec<ByteBuf, CompassState> STREAM_CODEC = StreamCodec.of(
+            (buf, state) -> {
+                buf.writeByte(state.tunedOre() != null ? state.tunedOre().ordinal() + 1 : 0);
+                buf.writeBoolean(state.dowsing());
+            },
+            buf -> new CompassState(readOre(buf), buf.readBoolean())
+    );
+
+    @Nullable
+    private static OreType readOre(ByteBuf buf) {
+        int id = buf.readUnsignedByte();
+        return id > 0 && id <= ORE_TYPES.length ? ORE_TYPES[id - 1] : null;
+    }
+
+    public CompassState withTunedOre(@Nullable OreType oreType) {
+        return new CompassState(oreType, dowsing);
+    }
+
+    public CompassState withDowsing(boolean dowsing) {
+        return new CompassState(tunedOre, dowsing);
+    }
+}
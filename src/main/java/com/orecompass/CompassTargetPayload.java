@@ -0,0 +1,80 @@
+package com.orecompass;
+
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.resources.ResourceLocation;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.network.event.RegisterPayloadHandlersEvent;
+import net.neoforged.neoforge.network.handling.IPayloadHandler;
+import net.neoforged.neoforge.network.registration.PayloadRegistrar;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tells a client where one player's compasses of one tier, tuning and dowsing mode point.
+ * Sent to the holder and to every player who can see them, so compasses in other players' hands point too.
+ * Only sent when the target changes, so compass stacks never need to be resynced for it.
+ */
+@EventBusSubscriber(modid = OreCompass.MODID, bus = EventBusSubscriber.Bus.MOD)
+public record CompassTargetPayload(int holderId, int compassKey, long targetPos, int oreId) implements CustomPacketPayload {
+    public static final Type<CompassTargetPayload> TYPE = new Type<>(ResourceLocation.fromNamespaceAndPath(OreCompass.MODID, "compass_target"));
+    public static final StreamCodec<FriendlyByteBuf, CompassTargetPayload> STREAM_CODEC = CustomPacketPayload.codec(CompassTargetPayload::write, CompassTargetPayload::new);
+
+    private static final OreType[] ORE_TYPES = OreType.values();
+
+    // Set by client setup, so this common class never loads client code; dedicated servers never receive the payload
+    private static volatile IPayloadHandler<CompassTargetPayload> clientHandler = (payload, context) -> {};
+
+    private CompassTargetPayload(FriendlyByteBuf buf) {
+        this(buf.readVarInt(), buf.readVarInt(), buf.readLong(), buf.readUnsignedByte());
+    }
+
+    /**
+     * Create the payload for a holder's compass key and its target, or for no target at all
+     */
+    public static CompassTargetPayload of(int holderId, int compassKey, @Nullable OreDetector.OreHit hit) {
+        // Ores are sent as ordinal + 1 so that 0 can stand for none
+        return hit != null
+                ? new CompassTargetPayload(holderId, compassKey, hit.pos().asLong(), hit.oreType().ordinal() + 1)
+                : new CompassTargetPayload(holderId, compassKey, 0L, 0);
+    }
+
+    private void write(FriendlyByteBuf buf) {
+        buf.writeVarInt(holderId);
+        buf.writeVarInt(compassKey);
+        buf.writeLong(targetPos);
+        buf.writeByte(oreId);
+    }
+
+    public boolean hasTarget() {
+        return oreId > 0 && oreId <= ORE_TYPES.length;
+    }
+
+    /**
+     * Get the ore the target is made of, or null if there is no target
+     */
+    @Nullable
+    public OreType getOreType() {
+        return hasTarget() ? ORE_TYPES[oreId - 1] : null;
+    }
+
+    @Override
+    public Type<? extends CustomPacketPayload> type() {
+        return TYPE;
+    }
+
+    /**
+     * Set what handles the payload once it reaches the client
+     */
+    public static void setClientHandler(IPayloadHandler<CompassTargetPayload> handler) {
+        clientHandler = handler;
+    }
+
+    @SubscribeEvent
+    static void registerPayloads(RegisterPayloadHandlersEvent event) {
+        PayloadRegistrar registrar = event.registrar("1");
+        registrar.playToClient(TYPE, STREAM_CODEC, (payload, context) -> clientHandler.handle(payload, context));
+    }
+}
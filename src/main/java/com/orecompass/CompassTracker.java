@@ -0,0 +1,288 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+import net.neoforged.neoforge.network.PacketDistributor;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Server-side scan state of one player's compass.
+ * Compasses of the same tier, tuning and dowsing mode always look for the same ores in the same volume, so they share a tracker.
+ */
+@EventBusSubscriber(modid = OreCompass.MODID)
+public class CompassTracker {
+    private static final Map<UUID, Int2ObjectMap<CompassTracker>> TRACKERS = new HashMap<>();
+
+    private final int key;
+    @Nullable
+    private ResourceKey<Level> scanDimension;
+    @Nullable
+    private ScanShape scanShape;
+    @Nullable
+    private BoundingBox scanBounds;
+    // What the last full scan covered; slab updates move the scan volume on, but the scan result still only knows this one
+    @Nullable
+    private ScanShape fullScanShape;
+    @Nullable
+    private BoundingBox fullScanBounds;
+    private long lastFullScanTime;
+    @Nullable
+    private OreDetector.OreHit result;
+    // Set when a block changed at the target, or when a new target was set, since it may have changed before it was registered
+    private boolean targetChanged;
+    private long lastTargetCheckTime;
+    @Nullable
+    private ScanResult scanResult;
+    @Nullable
+    private AsyncOreScanner.PendingScan pendingScan;
+    @Nullable
+    private ScanCursor scanCursor;
+    private boolean synced;
+    @Nullable
+    private OreDetector.OreHit syncedResult;
+
+    private CompassTracker(int key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the key shared by all compasses of the given tier, tuning and dowsing mode
+     */
+    public static int keyOf(int tier, @Nullable OreType tunedOre, boolean dowsing) {
+        return (dowsing ? 1 << 16 : 0) | (tier << 8) | (tunedOre != null ? tunedOre.ordinal() : 0xFF);
+    }
+
+    /**
+     * Get the tracker for a player's compass of the given tier, tuning and dowsing mode, creating it if needed
+     */
+    public static CompassTracker get(Player player, int tier, @Nullable OreType tunedOre, boolean dowsing) {
+        return TRACKERS.computeIfAbsent(player.getUUID(), uuid -> new Int2ObjectOpenHashMap<>())
+                .computeIfAbsent(keyOf(tier, tunedOre, dowsing), CompassTracker::new);
+    }
+
+    /**
+     * Check if the tracker holds a finished scan of the given level
+     */
+    public boolean hasScanIn(Level level) {
+        return scanBounds != null && scanDimension == level.dimension();
+    }
+
+    /**
+     * Get the volume the current result was computed for, before it was clamped to the world
+     */
+    @Nullable
+    public ScanShape getScanShape() {
+        return scanShape;
+    }
+
+    /**
+     * Get the volume the current result covers
+     */
+    @Nullable
+    public BoundingBox getScanBounds() {
+        return scanBounds;
+    }
+
+    public long getLastFullScanTime() {
+        return lastFullScanTime;
+    }
+
+    /**
+     * Get the best ore of the tracked volume, or null if there is none
+     */
+    @Nullable
+    public OreDetector.OreHit getResult() {
+        return result;
+    }
+
+    public void setResult(@Nullable OreDetector.OreHit result) {
+        setTarget(scanDimension, result);
+    }
+
+    /**
+     * Remember a result and the volume it covers
+     */
+    public void recordScan(Level level, ScanShape shape, BoundingBox bounds, @Nullable OreDetector.OreHit result) {
+        setTarget(level.dimension(), result);
+        this.scanShape = shape;
+        this.scanBounds = bounds;
+    }
+
+    /**
+     * Move the tracker's entry in the {@link TargetRegistry} along with its target
+     */
+    private void setTarget(@Nullable ResourceKey<Level> dimension, @Nullable OreDetector.OreHit target) {
+        if (dimension == scanDimension && Objects.equals(target, result)) {
+            return;
+        }
+        if (scanDimension != null && result != null) {
+            TargetRegistry.remove(scanDimension, result.pos(), this);
+        }
+        this.scanDimension = dimension;
+        this.result = target;
+        this.targetChanged = true;
+        if (dimension != null && target != null) {
+            TargetRegistry.add(dimension, target.pos(), this);
+        }
+    }
+
+    /**
+     * Check if the target has to be read back from the world: a block changed there, it is new,
+     * or it was not read for updateInterval ticks, since not every block change notifies neighbors
+     */
+    public boolean isTargetCheckDue(long gameTime) {
+        return targetChanged || gameTime - lastTargetCheckTime >= Config.updateInterval;
+    }
+
+    public void markTargetChecked(long gameTime) {
+        this.targetChanged = false;
+        this.lastTargetCheckTime = gameTime;
+    }
+
+    void markTargetChanged() {
+        this.targetChanged = true;
+    }
+
+    /**
+     * Remember what a scan of the whole volume found, targeting its best ore for the matcher
+     */
+    public void recordFullScan(Level level, ScanShape shape, BoundingBox bounds, ScanResult scanResult, OreMatcher matcher) {
+        recordScan(level, shape, bounds, scanResult.pick(shape.center(), bounds, matcher));
+        this.fullScanShape = shape;
+        this.fullScanBounds = bounds;
+        this.scanResult = scanResult;
+        this.lastFullScanTime = level.getGameTime();
+    }
+
+    /**
+     * Get what the last full scan found, kept up to date with ores found mined or exposed since
+     */
+    @Nullable
+    public ScanResult getScanResult() {
+        return scanResult;
+    }
+
+    /**
+     * Take a copy of the full scan of another compass of the same player that scanned the same shape
+     * for a wider set of ores, such as the untuned compass right after tuning one.
+     * The copy is this tracker's own, so ores either compass later finds mined or exposed do not change the other.
+     *
+     * @return True if such a scan was found, so none needs to run
+     */
+    public boolean reuseScan(Player player, Level level, ScanShape shape, BoundingBox bounds, OreMatcher matcher) {
+        Int2ObjectMap<CompassTracker> trackers = TRACKERS.get(player.getUUID());
+        if (trackers == null) {
+            return false;
+        }
+        for (CompassTracker other : trackers.values()) {
+            ScanResult otherResult = other.scanResult;
+            if (other != this && otherResult != null && other.hasScanIn(level) && shape.equals(other.fullScanShape)
+                    && contains(other.fullScanBounds, bounds) && otherResult.canPick(bounds, matcher)) {
+                recordFullScan(level, shape, bounds, otherResult.copy(), matcher);
+                this.lastFullScanTime = other.lastFullScanTime;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(BoundingBox outer, BoundingBox inner) {
+        return outer.minX() <= inner.minX() && outer.minY() <= inner.minY() && outer.minZ() <= inner.minZ()
+                && outer.maxX() >= inner.maxX() && outer.maxY() >= inner.maxY() && outer.maxZ() >= inner.maxZ();
+    }
+
+    /**
+     * Forget the current result, so the next update scans the whole volume
+     */
+    public void resetScan() {
+        setTarget(null, null);
+        this.scanShape = null;
+        this.scanBounds = null;
+        this.fullScanShape = null;
+        this.fullScanBounds = null;
+        this.scanResult = null;
+    }
+
+    /**
+     * Check if a full scan is still running
+     */
+    public boolean isScanning() {
+        return pendingScan != null || scanCursor != null;
+    }
+
+    @Nullable
+    public AsyncOreScanner.PendingScan getPendingScan() {
+        return pendingScan;
+    }
+
+    public void setPendingScan(@Nullable AsyncOreScanner.PendingScan pendingScan) {
+        this.pendingScan = pendingScan;
+    }
+
+    @Nullable
+    public ScanCursor getScanCursor() {
+        return scanCursor;
+    }
+
+    public void setScanCursor(@Nullable ScanCursor scanCursor) {
+        this.scanCursor = scanCursor;
+    }
+
+    /**
+     * Send the current result to the player and everyone who can see them if it differs from what was last sent
+     */
+    public void syncTo(ServerPlayer player) {
+        if (synced && Objects.equals(result, syncedResult)) {
+            return;
+        }
+        PacketDistributor.sendToPlayersTrackingEntityAndSelf(player, CompassTargetPayload.of(player.getId(), key, result));
+        synced = true;
+        syncedResult = result;
+    }
+
+    @SubscribeEvent
+    static void onStartTracking(PlayerEvent.StartTracking event) {
+        // A player coming into view has not seen any of their compass targets yet
+        if (event.getTarget() instanceof Player holder && event.getEntity() instanceof ServerPlayer viewer) {
+            Int2ObjectMap<CompassTracker> trackers = TRACKERS.get(holder.getUUID());
+            if (trackers == null) {
+                return;
+            }
+            for (CompassTracker tracker : trackers.values()) {
+                if (tracker.synced) {
+                    PacketDistributor.sendToPlayer(viewer, CompassTargetPayload.of(holder.getId(), tracker.key, tracker.syncedResult));
+                }
+            }
+        }
+    }
+
+    @SubscribeEvent
+    static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        Int2ObjectMap<CompassTracker> trackers = TRACKERS.remove(event.getEntity().getUUID());
+        if (trackers != null) {
+            for (CompassTracker tracker : trackers.values()) {
+                tracker.setTarget(null, null);
+            }
+        }
+    }
+
+    @SubscribeEvent
+    static void onServerStopped(ServerStoppedEvent event) {
+        TRACKERS.clear();
+        TargetRegistry.clear();
+    }
+}
@@ -5,6 +5,8 @@ import net.neoforged.fml.common.EventBusSubscriber;
 import net.neoforged.fml.event.config.ModConfigEvent;
 import net.neoforged.neoforge.common.ModConfigSpec;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 @EventBusSubscriber(modid = OreCompass.MODID, bus = EventBusSubscriber.Bus.MOD)
 public class Config {
     private static final ModConfigSpec.Builder BUILDER = new ModConfigSpec.Builder();
@@ -29,13 +31,115 @@ public class Config {
             .comment("How often the compass updates in ticks (20 ticks = 1 second)")
             .defineInRange("updateInterval", 20, 5, 100);
 
+    // Ore index
+    private static final ModConfigSpec.BooleanValue USE_ORE_INDEX = BUILDER
+            .comment("Keep an in-memory index of ore positions per chunk so compass queries do not rescan the world")
+            .define("useOreIndex", true);
+
+    private static final ModConfigSpec.BooleanValue PERSIST_ORE_INDEX = BUILDER
+            .comment("Save the indexed ores of each chunk with the chunk, so loading it again only checks them instead of rescanning it")
+            .define("persistOreIndex", true);
+
+    // Scan results
+    private static final ModConfigSpec.IntValue SCAN_RESULT_HITS = BUILDER
+            .comment("Number of nearest ores of each type a full scan remembers, so a compass can move on to the next one when its target is mined without scanning again.",
+                    "0 only finds the target, letting BLOCKING and ASYNC scans stop at the nearest ore instead of reading the whole range, but every mined target needs a new scan.",
+                    "INCREMENTAL scans always read the whole range")
+            .defineInRange("scanResultHits", 4, 0, 64);
+
+    // Shared scan cache
+    private static final ModConfigSpec.IntValue SCAN_CACHE_SIZE = BUILDER
+            .comment("Number of chunk sections whose scan results are cached and shared between compasses when the ore index is off (0 = disabled)")
+            .defineInRange("scanCacheSize", 8192, 0, 262144);
+
+    // Ore heights
+    private static final ModConfigSpec.BooleanValue CLAMP_TO_ORE_HEIGHTS = BUILDER
+            .comment("Only scan the heights at which the target ores generate in each dimension, read from its ore features.",
+                    "Ores placed outside those heights, by players or structures, are then not detected.",
+                    "The heights are read from how each placement is saved, so modded or nested height providers may be read wrong and hide real ores")
+            .define("clampToOreHeights", false);
+
+    private static final ModConfigSpec.BooleanValue FILTER_ORES_BY_WORLDGEN = BUILDER
+            .comment("Only look for ores that generate in the current dimension, and skip chunk sections where neither their biomes nor those of the sections around them can generate them.",
+                    "Dimensions without any ore generation are not filtered")
+            .define("filterOresByWorldgen", true);
+
+    // Chunk loading
+    private static final ModConfigSpec.BooleanValue LOADED_CHUNKS_ONLY = BUILDER
+            .comment("Only scan chunks that are already fully loaded, so holding a compass never loads or generates chunks.",
+                    "Chunks that are not loaded are treated as having no ores")
+            .define("loadedChunksOnly", true);
+
+    private static final ModConfigSpec.BooleanValue KEEP_ORE_DATA_FOR_UNLOADED_CHUNKS = BUILDER
+            .comment("Keep indexed and cached ores of chunks after they unload, so compasses still see ores in unloaded areas.",
+                    "Uses more memory the more of the world is explored")
+            .define("keepOreDataForUnloadedChunks", false);
+
+    // Scan volume
+    private static final ModConfigSpec.EnumValue<ScanVolume> SCAN_VOLUME = BUILDER
+            .comment("Volume a compass scans: CUBE reaches range blocks along each axis, SPHERE reaches range blocks in every direction",
+                    "and reads about half as many blocks")
+            .defineEnum("scanVolume", ScanVolume.CUBE);
+
+    private static final ModConfigSpec.IntValue DOWSING_ANGLE = BUILDER
+            .comment("Half-angle in degrees of the cone a compass in dowsing mode (sneak and use to toggle) scans in the look direction")
+            .defineInRange("dowsingAngle", 20, 5, 45);
+
+    private static final ModConfigSpec.DoubleValue DOWSING_RANGE_MULTIPLIER = BUILDER
+            .comment("How much farther than its range a compass reaches in dowsing mode. At the default angle, 3 reads about as many blocks as a sphere")
+            .defineInRange("dowsingRangeMultiplier", 3.0, 1.0, 4.0);
+
+    // Scan mode
+    private static final ModConfigSpec.EnumValue<ScanMode> SCAN_MODE = BUILDER
+            .comment("How compass scans run: BLOCKING scans on the server thread, INCREMENTAL spreads scans over several ticks on the server thread,",
+                    "sharing scanTickBudget between all players, and ASYNC copies the needed chunk sections and scans them on a worker thread.",
+                    "ASYNC is for useOreIndex off: the ore index can only be read on the server thread, so while it is on ASYNC scans run like INCREMENTAL ones")
+            .defineEnum("scanMode", ScanMode.INCREMENTAL);
+
+    private static final ModConfigSpec.IntValue SCAN_BLOCK_BUDGET = BUILDER
+            .comment("Maximum number of blocks an INCREMENTAL scan reads in one turn before the next player's scan is served")
+            .defineInRange("scanBlockBudget", 32768, 4096, 1048576);
+
+    private static final ModConfigSpec.IntValue SCAN_TICK_BUDGET = BUILDER
+            .comment("Maximum number of blocks all INCREMENTAL scans together read per tick, counting each section visited and each ore found as one more;",
+                    "scans take longer instead of slowing the server")
+            .defineInRange("scanTickBudget", 262144, 4096, 16777216);
+
+    private static final ModConfigSpec.IntValue PARALLEL_SCAN_SECTIONS = BUILDER
+            .comment("ASYNC scans spanning at least this many chunk sections are split across several worker threads. 0 never splits scans.",
+                    "Only used with scanMode ASYNC and useOreIndex off, since index scans are spread over ticks instead; the defaults never split scans")
+            .defineInRange("parallelScanSections", 1024, 0, 1048576);
+
+    private static final ModConfigSpec.IntValue PARALLEL_SCAN_THREADS = BUILDER
+            .comment("Worker threads for split scans. 0 uses all but two of the available processors")
+            .defineInRange("parallelScanThreads", 0, 0, 64);
+
     static final ModConfigSpec SPEC = BUILDER.build();
 
+    // Reloads of the config file arrive on the config watcher thread, so what they make stale is dropped on the server thread
+    private static final AtomicBoolean CHANGED = new AtomicBoolean();
+
     // Runtime values
     public static int basicRange;
     public static int advancedRange;
     public static int masterRange;
     public static int updateInterval;
+    public static boolean useOreIndex;
+    public static boolean persistOreIndex;
+    public static int scanResultHits;
+    public static int scanCacheSize;
+    public static boolean clampToOreHeights;
+    public static boolean filterOresByWorldgen;
+    public static boolean loadedChunksOnly;
+    public static boolean keepOreDataForUnloadedChunks;
+    public static ScanVolume scanVolume;
+    public static int dowsingAngle;
+    public static double dowsingRangeMultiplier;
+    public static ScanMode scanMode;
+    public static int scanBlockBudget;
+    public static int scanTickBudget;
+    public static int parallelScanSections;
+    public static int parallelScanThreads;
 
     @SubscribeEvent
     static void onLoad(final ModConfigEvent event) {
@@ -43,5 +147,51 @@ public class Config {
         advancedRange = ADVANCED_RANGE.get();
         masterRange = MASTER_RANGE.get();
         updateInterval = UPDATE_INTERVAL.get();
+        useOreIndex = USE_ORE_INDEX.get();
+        persistOreIndex = PERSIST_ORE_INDEX.get();
+        scanResultHits = SCAN_RESULT_HITS.get();
+        scanCacheSize = SCAN_CACHE_SIZE.get();
+        clampToOreHeights = CLAMP_TO_ORE_HEIGHTS.get();
+        filterOresByWorldgen = FILTER_ORES_BY_WORLDGEN.get();
+        loadedChunksOnly = LOADED_CHUNKS_ONLY.get();
+        keepOreDataForUnloadedChunks = KEEP_ORE_DATA_FOR_UNLOADED_CHUNKS.get();
+        scanVolume = SCAN_VOLUME.get();
+        dowsingAngle = DOWSING_ANGLE.get();
+        dowsingRangeMultiplier = DOWSING_RANGE_MULTIPLIER.get();
+        scanMode = SCAN_MODE.get();
+        scanBlockBudget = SCAN_BLOCK_BUDGET.get();
+        scanTickBudget = SCAN_TICK_BUDGET.get();
+        parallelScanSections = PARALLEL_SCAN_SECTIONS.get();
+        parallelScanThreads = PARALLEL_SCAN_THREADS.get();
+
+        CHANGED.set(true);
+    }
+
+    /**
+     * Drop what the last config change made stale, and resize the scan pool. Runs on the server thread before each tick.
+     */
+    static void applyChanges() {
+        if (!CHANGED.getAndSet(false)) {
+            return;
+        }
+        // Block changes are not tracked while the index or cache is off, so anything kept before is stale
+        if (!useOreIndex) {
+            OreIndex.clear();
+        }
+        if (scanCacheSize <= 0) {
+            SectionScanCache.clear();
+        }
+        ParallelOreScanner.resize();
+    }
+
+    public enum ScanVolume {
+        CUBE,
+        SPHERE
+    }
+
+    public enum ScanMode {
+        BLOCKING,
+        ASYNC,
+        INCREMENTAL
     }
 }
@@ -1,6 +1,7 @@
 package com.orecompass;
 
 import com.mojang.logging.LogUtils;
+import net.minecraft.core.component.DataComponentType;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.item.CreativeModeTab;
@@ -24,6 +25,14 @@ public class OreCompass {
     public static final DeferredRegister.Items ITEMS = DeferredRegister.createItems(MODID);
     public static final DeferredRegister<CreativeModeTab> CREATIVE_MODE_TABS = DeferredRegister.create(Registries.CREATIVE_MODE_TAB, MODID);
     public static final DeferredRegister<RecipeSerializer<?>> RECIPE_SERIALIZERS = DeferredRegister.create(Registries.RECIPE_SERIALIZER, MODID);
+    public static final DeferredRegister<DataComponentType<?>> DATA_COMPONENTS = DeferredRegister.create(Registries.DATA_COMPONENT_TYPE, MODID);
+
+    // Data Components
+    public static final DeferredHolder<DataComponentType<?>, DataComponentType<CompassState>> COMPASS_STATE = DATA_COMPONENTS.register("compass_state",
+            () -> DataComponentType.<CompassState>builder()
+                    .persistent(CompassState.CODEC)
+                    .networkSynchronized(CompassState.STREAM_CODEC)
+                    .build());
 
     // Ore Compass Items - Tier 1: Basic (16 block range)
     public static final DeferredHolder<Item, OreCompassItem> BASIC_ORE_COMPASS = ITEMS.register("basic_ore_compass",
@@ -58,6 +67,7 @@ public class OreCompass {
         ITEMS.register(modEventBus);
         CREATIVE_MODE_TABS.register(modEventBus);
         RECIPE_SERIALIZERS.register(modEventBus);
+        DATA_COMPONENTS.register(modEventBus);
 
         // Register config
         modContainer.registerConfig(ModConfig.Type.COMMON, Config.SPEC);
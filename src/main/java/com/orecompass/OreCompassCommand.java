@@ -0,0 +1,92 @@
+package com.orecompass;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.event.RegisterCommandsEvent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Operator commands: {@code /orecompass stats} shows what compasses cost the server, {@code /orecompass stats reset} starts over
+ */
+@EventBusSubscriber(modid = OreCompass.MODID)
+public class OreCompassCommand {
+    private static final int MAX_PLAYERS_SHOWN = 10;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 1.0};
+
+    @SubscribeEvent
+    static void onRegisterCommands(RegisterCommandsEvent event) {
+        event.getDispatcher().register(Commands.literal("orecompass")
+                .requires(source -> source.hasPermission(2))
+                .then(Commands.literal("stats")
+                        .executes(context -> showStats(context.getSource()))
+                        .then(Commands.literal("reset")
+                                .executes(context -> resetStats(context.getSource())))));
+    }
+
+    private static int showStats(CommandSourceStack source) {
+        long ticks = ScanMetrics.getTicks();
+        long scans = ScanMetrics.getScans();
+        long cacheHits = ScanMetrics.getCacheHits();
+        long cacheLookups = cacheHits + ScanMetrics.getCacheMisses();
+
+        send(source, Component.literal("Ore Compass stats over " + ticks + " ticks").withStyle(ChatFormatting.GOLD));
+        send(source, Component.literal(String.format("Scans: %d (%.2f/tick avg, %d/tick max)",
+                scans, ticks > 0 ? (double) scans / ticks : 0.0, ScanMetrics.getMaxScansPerTick())));
+        send(source, Component.literal(String.format("Visited: %d sections, %d blocks read",
+                ScanMetrics.getSections(), ScanMetrics.getBlocks())));
+        send(source, Component.literal(String.format("Section cache: %d hits of %d lookups (%.1f%%)",
+                cacheHits, cacheLookups, cacheLookups > 0 ? 100.0 * cacheHits / cacheLookups : 0.0)));
+        send(source, Component.literal(String.format("Ore index: %d sections indexed, %d of them from saved ores",
+                ScanMetrics.getIndexedSections(), ScanMetrics.getRestoredSections())));
+        long targetChecks = ScanMetrics.getTargetChecks();
+        send(source, Component.literal(String.format("Target checks: %d (%.2f/tick avg)",
+                targetChecks, ticks > 0 ? (double) targetChecks / ticks : 0.0)));
+        send(source, Component.literal("Scan time: " + formatTimes(ScanMetrics.getScanTimes(PERCENTILES))));
+        send(source, Component.literal("Update time (server thread): " + formatTimes(ScanMetrics.getUpdateTimes(PERCENTILES))));
+
+        for (ScanMetrics.Totals totals : sortByTime(ScanMetrics.getTierTotals())) {
+            send(source, formatTotals(totals));
+        }
+
+        List<ScanMetrics.Totals> players = sortByTime(ScanMetrics.getPlayerTotals());
+        for (ScanMetrics.Totals totals : players.subList(0, Math.min(players.size(), MAX_PLAYERS_SHOWN))) {
+            send(source, formatTotals(totals));
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, scans);
+    }
+
+    private static int resetStats(CommandSourceStack source) {
+        ScanMetrics.reset();
+        source.sendSuccess(() -> Component.literal("Ore Compass stats reset"), true);
+        return 1;
+    }
+
+    private static void send(CommandSourceStack source, Component message) {
+        source.sendSuccess(() -> message, false);
+    }
+
+    private static String formatTimes(long[] nanos) {
+        return String.format("p50 %.1fµs, p90 %.1fµs, p99 %.1fµs, max %.1fµs",
+                nanos[0] / 1000.0, nanos[1] / 1000.0, nanos[2] / 1000.0, nanos[3] / 1000.0);
+    }
+
+    private static Component formatTotals(ScanMetrics.Totals totals) {
+        return Component.literal(String.format("  %s: %d updates, %.2fms total",
+                totals.getName(), totals.getUpdates(), totals.getNanos() / 1_000_000.0)).withStyle(ChatFormatting.GRAY);
+    }
+
+    private static List<ScanMetrics.Totals> sortByTime(Iterable<ScanMetrics.Totals> totals) {
+        List<ScanMetrics.Totals> sorted = new ArrayList<>();
+        totals.forEach(sorted::add);
+        sorted.sort(Comparator.comparingLong(ScanMetrics.Totals::getNanos).reversed());
+        return sorted;
+    }
+}
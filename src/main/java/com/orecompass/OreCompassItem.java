@@ -5,6 +5,8 @@ import net.minecraft.core.BlockPos;
 import net.minecraft.core.component.DataComponents;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.util.profiling.ProfilerFiller;
 import net.minecraft.world.InteractionHand;
 import net.minecraft.world.InteractionResultHolder;
 import net.minecraft.world.entity.Entity;
@@ -14,6 +16,8 @@ import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.TooltipFlag;
 import net.minecraft.world.item.component.CustomData;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
 
 import javax.annotation.Nullable;
 import java.util.List;
@@ -22,54 +26,61 @@ import java.util.List;
  * Base class for Ore Compass items
  */
 public class OreCompassItem extends Item {
-    private static final String NBT_TUNED_ORE = "TunedOre";
-    private static final String NBT_TARGET_X = "TargetX";
-    private static final String NBT_TARGET_Y = "TargetY";
-    private static final String NBT_TARGET_Z = "TargetZ";
-    private static final String NBT_DETECTED_ORE = "DetectedOre";
+    // Custom data keys used before the compass state component existed
+    private static final String LEGACY_TUNED_ORE = "TunedOre";
+    private static final String LEGACY_TARGET_X = "TargetX";
+    private static final String[] LEGACY_KEYS = {LEGACY_TUNED_ORE, LEGACY_TARGET_X, "TargetY", "TargetZ", "DetectedOre"};
+
+    // Dowsing cones follow the view in steps of this many degrees, so that small head movements do not start a new scan
+    private static final int DOWSING_STEP_DEGREES = 5;
 
     private final int tier;
-    private final int range;
+    private final int defaultRange;
 
-    public OreCompassItem(int tier, int range, Properties properties) {
+    public OreCompassItem(int tier, int defaultRange, Properties properties) {
         super(properties);
         this.tier = tier;
-        this.range = range;
+        this.defaultRange = defaultRange;
     }
 
     public int getTier() {
         return tier;
     }
 
+    /**
+     * Get the detection range configured for this compass tier
+     */
     public int getRange() {
-        return range;
+        int configured = switch (tier) {
+            case 1 -> Config.basicRange;
+            case 2 -> Config.advancedRange;
+            default -> Config.masterRange;
+        };
+        // Config values are 0 until the config has loaded
+        return configured > 0 ? configured : defaultRange;
     }
 
     /**
-     * Get custom data from ItemStack, or empty if none
+     * Get the compass state of an ItemStack, or the empty state if none
      */
-    private static CompoundTag getCustomData(ItemStack stack) {
-        CustomData customData = stack.get(DataComponents.CUSTOM_DATA);
-        if (customData != null) {
-            return customData.copyTag();
-        }
-        return new CompoundTag();
+    public static CompassState getState(ItemStack stack) {
+        return stack.getOrDefault(OreCompass.COMPASS_STATE, CompassState.EMPTY);
     }
 
     /**
-     * Set custom data on ItemStack
+     * Store the compass state, leaving the stack untouched if nothing changed
      */
-    private static void setCustomData(ItemStack stack, CompoundTag tag) {
-        stack.set(DataComponents.CUSTOM_DATA, CustomData.of(tag));
+    private static void setState(ItemStack stack, CompassState state) {
+        if (!state.equals(getState(stack))) {
+            stack.set(OreCompass.COMPASS_STATE, state);
+        }
     }
 
     /**
      * Set the tuned ore type for this compass
      */
     public static void setTunedOre(ItemStack stack, OreType oreType) {
-        CompoundTag tag = getCustomData(stack);
-        tag.putString(NBT_TUNED_ORE, oreType.getName());
-        setCustomData(stack, tag);
+        setState(stack, getState(stack).withTunedOre(oreType));
     }
 
     /**
@@ -77,11 +88,7 @@ public class OreCompassItem extends Item {
      */
     @Nullable
     public static OreType getTunedOre(ItemStack stack) {
-        CompoundTag tag = getCustomData(stack);
-        if (tag.contains(NBT_TUNED_ORE)) {
-            return OreType.fromName(tag.getString(NBT_TUNED_ORE));
-        }
-        return null;
+        return getState(stack).tunedOre();
     }
 
     /**
@@ -92,94 +99,116 @@ public class OreCompassItem extends Item {
     }
 
     /**
-     * Store the target position in NBT
+     * Check if this compass only looks ahead, in a cone along the holder's view
      */
-    private static void setTargetPos(ItemStack stack, BlockPos pos) {
-        CompoundTag tag = getCustomData(stack);
-        tag.putInt(NBT_TARGET_X, pos.getX());
-        tag.putInt(NBT_TARGET_Y, pos.getY());
-        tag.putInt(NBT_TARGET_Z, pos.getZ());
-        setCustomData(stack, tag);
+    public static boolean isDowsing(ItemStack stack) {
+        return getState(stack).dowsing();
     }
 
-    /**
-     * Get the stored target position
-     */
-    @Nullable
-    public static BlockPos getTargetPos(ItemStack stack) {
-        CompoundTag tag = getCustomData(stack);
-        if (tag.contains(NBT_TARGET_X)) {
-            return new BlockPos(
-                    tag.getInt(NBT_TARGET_X),
-                    tag.getInt(NBT_TARGET_Y),
-                    tag.getInt(NBT_TARGET_Z)
-            );
-        }
-        return null;
+    public static void setDowsing(ItemStack stack, boolean dowsing) {
+        setState(stack, getState(stack).withDowsing(dowsing));
     }
 
     /**
-     * Set the detected ore type
+     * Get the volume the compass scans for its holder: the configured cube or sphere around them,
+     * or in dowsing mode a longer cone in the direction they look
      */
-    private static void setDetectedOre(ItemStack stack, OreType oreType) {
-        CompoundTag tag = getCustomData(stack);
-        tag.putString(NBT_DETECTED_ORE, oreType.getName());
-        setCustomData(stack, tag);
+    private ScanShape getScanShape(Player player, boolean dowsing) {
+        int range = getRange();
+        if (dowsing) {
+            return ScanShape.cone(BlockPos.containing(player.getEyePosition()), player.getYRot(), player.getXRot(),
+                    (int) (range * Config.dowsingRangeMultiplier), Config.dowsingAngle, DOWSING_STEP_DEGREES);
+        }
+        return Config.scanVolume == Config.ScanVolume.SPHERE
+                ? ScanShape.sphere(player.blockPosition(), range)
+                : ScanShape.cube(player.blockPosition(), range);
     }
 
     /**
-     * Get the detected ore type (for non-tuned compasses)
+     * Move compass data written by older versions from custom data into the compass state
      */
-    @Nullable
-    public static OreType getDetectedOre(ItemStack stack) {
-        CompoundTag tag = getCustomData(stack);
-        if (tag.contains(NBT_DETECTED_ORE)) {
-            return OreType.fromName(tag.getString(NBT_DETECTED_ORE));
+    private static void migrateLegacyData(ItemStack stack) {
+        CustomData customData = stack.get(DataComponents.CUSTOM_DATA);
+        if (customData == null || !(customData.contains(LEGACY_TUNED_ORE) || customData.contains(LEGACY_TARGET_X))) {
+            return;
         }
-        return null;
-    }
 
-    /**
-     * Clear the detected ore
-     */
-    private static void clearDetectedOre(ItemStack stack) {
-        CompoundTag tag = getCustomData(stack);
-        tag.remove(NBT_DETECTED_ORE);
-        setCustomData(stack, tag);
-    }
+        CompoundTag tag = customData.copyTag();
+        OreType tunedOre = OreType.fromName(tag.getString(LEGACY_TUNED_ORE));
+        if (tunedOre != null && getTunedOre(stack) == null) {
+            setTunedOre(stack, tunedOre);
+        }
 
-    /**
-     * Clear the stored target position
-     */
-    private static void clearTargetPos(ItemStack stack) {
-        CompoundTag tag = getCustomData(stack);
-        tag.remove(NBT_TARGET_X);
-        tag.remove(NBT_TARGET_Y);
-        tag.remove(NBT_TARGET_Z);
-        setCustomData(stack, tag);
+        // The target is recomputed and sent on the next update, so it can simply be dropped
+        for (String key : LEGACY_KEYS) {
+            tag.remove(key);
+        }
+        if (tag.isEmpty()) {
+            stack.remove(DataComponents.CUSTOM_DATA);
+        } else {
+            stack.set(DataComponents.CUSTOM_DATA, CustomData.of(tag));
+        }
     }
 
     /**
-     * Check if the block at the given position is still a valid ore of the specified type
+     * Check if the block at the given position matches any ore of the matcher
      */
-    private boolean isValidOreAt(Level level, BlockPos pos, @Nullable OreType oreType) {
-        if (pos == null || oreType == null) {
+    private boolean isValidOreAt(Level level, BlockPos pos, OreMatcher matcher) {
+        if (pos == null) {
             return false;
         }
-        return oreType.matches(level.getBlockState(pos).getBlock());
+        // An unloaded target cannot have been mined, and reading it would load its chunk
+        if (Config.loadedChunksOnly && !level.isLoaded(pos)) {
+            return true;
+        }
+        ScanMetrics.recordTargetCheck();
+        BlockState state = level.getBlockState(pos);
+        if (matcher.matches(state)) {
+            return true;
+        }
+
+        // Targets mined with a block update are already gone from the index and cache; one they still hold was changed without one
+        OreIndex index = OreIndex.get(level);
+        if (index != null) {
+            index.verify(pos, state);
+        }
+        SectionScanCache cache = SectionScanCache.get(level);
+        if (cache != null) {
+            cache.invalidate(pos);
+        }
+        return false;
     }
 
     /**
-     * Check if the block at the given position matches any ore in the list
+     * Move the tracker on to the next best ore after its target was found mined, from what the last full scan saw.
+     * Each candidate is checked in the world, since it may have been mined as well.
+     * The scan kept the ores nearest to where it ran, so once the player moved from there an ore that was not kept
+     * may be the nearest one, and only a rescan can tell.
+     *
+     * @return True if the tracker now holds the best ore left in range, or none if there is none;
+     *         false if it holds nothing because only a rescan can tell
      */
-    private boolean isValidOreAt(Level level, BlockPos pos, List<OreType> oreTypes) {
-        if (pos == null || oreTypes == null || oreTypes.isEmpty()) {
+    private boolean fallBack(Level level, CompassTracker tracker, OreDetector.OreHit lost, OreMatcher matcher) {
+        tracker.setResult(null);
+        ScanResult scanResult = tracker.getScanResult();
+        ScanShape shape = tracker.getScanShape();
+        BoundingBox bounds = tracker.getScanBounds();
+        if (scanResult == null || shape == null || bounds == null) {
+            return false;
+        }
+
+        scanResult.remove(lost.pos());
+        if (!shape.center().equals(scanResult.getCenter())) {
             return false;
         }
-        for (OreType oreType : oreTypes) {
-            if (oreType.matches(level.getBlockState(pos).getBlock())) {
+        while (scanResult.canPick(bounds, matcher)) {
+            OreDetector.OreHit candidate = scanResult.pick(scanResult.getCenter(), bounds, matcher);
+            if (candidate == null || isValidOreAt(level, candidate.pos(), matcher)) {
+                tracker.setResult(candidate);
+                tracker.markTargetChecked(level.getGameTime());
                 return true;
             }
+            scanResult.remove(candidate.pos());
         }
         return false;
     }
@@ -187,75 +216,163 @@ public class OreCompassItem extends Item {
     @Override
     public void inventoryTick(ItemStack stack, Level level, Entity entity, int slotId, boolean isSelected) {
         if (!level.isClientSide && entity instanceof Player player) {
-            // Update immediately when selected (held in hand) or every 20 ticks when in inventory
-            boolean shouldUpdate = isSelected || (level.getGameTime() % 20 == 0);
+            migrateLegacyData(stack);
+
+            // Update every tick when selected (held in hand), which is cheap unless the player moves,
+            // or every updateInterval ticks when in inventory
+            int interval = Math.max(1, Config.updateInterval);
+            boolean shouldUpdate = isSelected || (level.getGameTime() % interval == 0);
 
             if (shouldUpdate) {
-                updateCompass(stack, level, player);
+                updateCompass(stack, level, player, false);
             }
         }
     }
 
     /**
-     * Update the compass to point to the nearest ore
+     * Update the compass to point to the nearest ore.
+     * A standing player's compass reads nothing unless a block changed at its target or a periodic check is due;
+     * a moving player only has the newly exposed slabs of the volume scanned, with a full rescan at most every updateInterval ticks.
+     * Between those rescans a moving compass picks from the hits the last full scan kept, so if an ore type had more hits
+     * than were kept, a nearer one may be missed until the rescan.
+     * Spheres and cones do not move slab by slab, so they keep their target until that rescan.
      */
-    private void updateCompass(ItemStack stack, Level level, Player player) {
-        BlockPos playerPos = player.blockPosition();
-        BlockPos storedPos = getTargetPos(stack);
+    private void updateCompass(ItemStack stack, Level level, Player player, boolean forceRescan) {
+        ProfilerFiller profiler = level.getProfiler();
+        profiler.push("oreCompass");
+        long startTime = System.nanoTime();
 
         OreType tunedOre = getTunedOre(stack);
+        boolean dowsing = isDowsing(stack);
+        // Ores that never generate in this dimension are not worth looking for
+        OreMatcher matcher = OreGenerationProfile.prune(level, tunedOre != null ? OreMatcher.of(tunedOre) : OreMatcher.forTier(tier));
+        CompassTracker tracker = CompassTracker.get(player, tier, tunedOre, dowsing);
+        ScanShape shape = getScanShape(player, dowsing);
+
+        // First, validate the current target if a block changed there, falling back to the next ore the last full scan saw
+        OreDetector.OreHit current = tracker.hasScanIn(level) ? tracker.getResult() : null;
+        boolean targetLost = false;
+        if (current != null && tracker.isTargetCheckDue(level.getGameTime())) {
+            tracker.markTargetChecked(level.getGameTime());
+            if (!isValidOreAt(level, current.pos(), matcher)) {
+                targetLost = !fallBack(level, tracker, current, matcher);
+                current = tracker.getResult();
+            }
+        }
 
-        // First, validate the stored position is still valid
-        if (storedPos != null) {
-            boolean stillValid = false;
-            if (tunedOre != null) {
-                stillValid = isValidOreAt(level, storedPos, tunedOre);
-            } else {
-                List<OreType> detectableOres = OreType.getOresForTier(tier);
-                stillValid = isValidOreAt(level, storedPos, detectableOres);
+        // Another compass that just scanned from here for more ores already has the answer, such as after retuning
+        if (!tracker.hasScanIn(level) && !tracker.isScanning()) {
+            BoundingBox bounds = OreDetector.getScanBounds(level, shape, matcher);
+            if (bounds != null && tracker.reuseScan(player, level, shape, bounds, matcher)) {
+                current = tracker.getResult();
             }
+        }
 
-            // If stored position is no longer valid, clear it
-            if (!stillValid) {
-                clearTargetPos(stack);
-                storedPos = null;
+        // A changed volume means the player moved, turned while dowsing, or the range changed
+        ScanShape lastShape = tracker.getScanShape();
+        boolean moved = !shape.equals(lastShape);
+        boolean refreshDue = moved && level.getGameTime() - tracker.getLastFullScanTime() >= Config.updateInterval;
+        if (tracker.isScanning() || forceRescan || targetLost || !tracker.hasScanIn(level) || refreshDue) {
+            profiler.push("fullScan");
+            runFullScan(level, player, shape, matcher, tracker);
+            profiler.pop();
+        } else if (moved) {
+            BoundingBox bounds = OreDetector.getScanBounds(level, shape, matcher);
+            if (bounds == null || (current != null && !(bounds.isInside(current.pos()) && shape.contains(current.pos())))) {
+                // The target dropped out of range, and nothing is known about the rest of the old volume
+                profiler.push("fullScan");
+                runFullScan(level, player, shape, matcher, tracker);
+                profiler.pop();
+            } else if (shape.isBox() && lastShape != null && lastShape.isBox()) {
+                BlockPos playerPos = shape.center();
+                profiler.push("exposedSlabs");
+                OreDetector.OreSource source = OreDetector.sourceFor(level);
+                ScanResult scanResult = tracker.getScanResult();
+                // Ores of the overlap that were farther than the target from the old center may be nearer now,
+                // so rank the kept hits again from here before the newly exposed slabs get their say
+                if (scanResult != null) {
+                    current = OreDetector.pickBetter(playerPos, current, scanResult.pick(playerPos, bounds, matcher));
+                }
+                for (BoundingBox slab : OreDetector.getExposedSlabs(tracker.getScanBounds(), bounds)) {
+                    OreDetector.OreHit slabHit = OreDetector.findNearestHit(source, playerPos, slab, matcher);
+                    if (slabHit != null && scanResult != null) {
+                        scanResult.offer(slabHit);
+                    }
+                    current = OreDetector.pickBetter(playerPos, current, slabHit);
+                }
+                tracker.recordScan(level, shape, bounds, current);
+                profiler.pop();
             }
+            // Otherwise the target is still inside the new volume; the refresh rescans it once due
         }
+        // Standing still: the current target was all that needed checking
 
-        // Find nearest ore
-        BlockPos targetPos = null;
-        OreType detectedOreType = null;
+        // Keep the client's last known target while a full scan is still running,
+        // but do tell it when there turned out to be nothing to scan at all
+        if ((tracker.hasScanIn(level) || !tracker.isScanning()) && player instanceof ServerPlayer serverPlayer) {
+            tracker.syncTo(serverPlayer);
+        }
 
-        if (tunedOre != null) {
-            // Tuned to specific ore
-            targetPos = OreDetector.findNearestOre(level, playerPos, range, tunedOre);
-            if (targetPos != null) {
-                detectedOreType = tunedOre;
+        profiler.pop();
+        ScanMetrics.recordUpdate(player, tier, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Start or continue a scan of the whole volume, using the configured scan mode.
+     * The tracker keeps its last result until the scan finishes.
+     */
+    private void runFullScan(Level level, Player player, ScanShape shape, OreMatcher matcher, CompassTracker tracker) {
+        ScanShape scannedShape;
+        BoundingBox bounds;
+        ScanResult scanResult;
+
+        // The index can only be read on the server thread, so with it ASYNC scans share the tick budget like INCREMENTAL ones
+        if (Config.scanMode == Config.ScanMode.ASYNC && OreIndex.get(level) == null) {
+            AsyncOreScanner.PendingScan pendingScan = tracker.getPendingScan();
+            if (pendingScan == null) {
+                pendingScan = AsyncOreScanner.submit(level, shape, matcher);
+                tracker.setPendingScan(pendingScan);
             }
-        } else {
-            // Detect all ores for this tier
-            List<OreType> detectableOres = OreType.getOresForTier(tier);
-            targetPos = OreDetector.findNearestOre(level, playerPos, range, detectableOres);
-
-            // Identify which ore type was found
-            if (targetPos != null) {
-                for (OreType oreType : detectableOres) {
-                    if (oreType.matches(level.getBlockState(targetPos).getBlock())) {
-                        detectedOreType = oreType;
-                        break;
-                    }
-                }
+
+            // Keep the last known target until the running scan reports back
+            if (!pendingScan.isDone()) {
+                return;
+            }
+            tracker.setPendingScan(null);
+            if (!pendingScan.isUsableIn(level)) {
+                return;
             }
+            scannedShape = pendingScan.shape();
+            bounds = pendingScan.bounds();
+            scanResult = pendingScan.getResult();
+        } else if (Config.scanMode != Config.ScanMode.BLOCKING) {
+            ScanCursor cursor = tracker.getScanCursor();
+            if (cursor == null || !cursor.isFor(level)) {
+                cursor = ScanCursor.start(level, shape, matcher);
+                tracker.setScanCursor(cursor);
+                ScanScheduler.submit(player, tracker);
+            }
+
+            // The scheduler advances the sweep within the server-wide budget;
+            // publish only once it is done, keeping the last target meanwhile
+            if (!cursor.isDone()) {
+                return;
+            }
+            tracker.setScanCursor(null);
+            scannedShape = cursor.getShape();
+            bounds = cursor.getBounds();
+            scanResult = cursor.getResult();
+        } else {
+            scannedShape = shape;
+            bounds = OreDetector.getScanBounds(level, shape, matcher);
+            scanResult = bounds != null ? OreDetector.scan(OreDetector.sourceFor(level), shape, bounds, matcher) : null;
         }
 
-        // Update or clear position and detected ore
-        if (targetPos != null && detectedOreType != null) {
-            setTargetPos(stack, targetPos);
-            setDetectedOre(stack, detectedOreType);
+        if (bounds != null && scanResult != null) {
+            tracker.recordFullScan(level, scannedShape, bounds, scanResult, matcher);
         } else {
-            // No ore found, clear any stored position
-            clearTargetPos(stack);
-            clearDetectedOre(stack);
+            // Nothing of the volume is inside the world, so there is nothing to track
+            tracker.resetScan();
         }
     }
 
@@ -264,8 +381,14 @@ public class OreCompassItem extends Item {
         ItemStack stack = player.getItemInHand(hand);
 
         if (!level.isClientSide) {
-            // Force update when used
-            updateCompass(stack, level, player);
+            if (player.isShiftKeyDown()) {
+                // Sneak and use switches between scanning all around and dowsing ahead
+                boolean dowsing = !isDowsing(stack);
+                setDowsing(stack, dowsing);
+                player.displayClientMessage(Component.translatable(dowsing ? "ore_compass.message.dowsing_on" : "ore_compass.message.dowsing_off"), true);
+            }
+            // Force a full rescan when used
+            updateCompass(stack, level, player, true);
         }
 
         // Use pass() to avoid the "lowering hand" animation
@@ -279,7 +402,7 @@ public class OreCompassItem extends Item {
                 .withStyle(ChatFormatting.GRAY));
 
         // Show range
-        tooltip.add(Component.literal("Range: " + range + " blocks")
+        tooltip.add(Component.literal("Range: " + getRange() + " blocks")
                 .withStyle(ChatFormatting.GRAY));
 
         // Show tuned ore if applicable
@@ -292,6 +415,11 @@ public class OreCompassItem extends Item {
                     .withStyle(ChatFormatting.AQUA));
         }
 
+        if (isDowsing(stack)) {
+            tooltip.add(Component.literal("Dowsing: " + (int) (getRange() * Config.dowsingRangeMultiplier) + " blocks ahead")
+                    .withStyle(ChatFormatting.DARK_AQUA));
+        }
+
         super.appendHoverText(stack, context, tooltip, flag);
     }
 
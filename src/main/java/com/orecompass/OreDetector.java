@@ -1,12 +1,19 @@
 package com.orecompass;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -27,72 +34,471 @@ public class OreDetector {
      */
     @Nullable
     public static BlockPos findNearestOre(Level level, BlockPos playerPos, int range, List<OreType> targetOres) {
-        BlockPos bestPos = null;
-        int bestPriority = Integer.MAX_VALUE;
-        double bestDistance = Double.MAX_VALUE;
+        return findNearestOre(level, playerPos, range, OreMatcher.of(targetOres));
+    }
+
+    /**
+     * Find the nearest ore of a specific single type
+     */
+    @Nullable
+    public static BlockPos findNearestOre(Level level, BlockPos playerPos, int range, OreType targetOre) {
+        return findNearestOre(level, playerPos, range, OreMatcher.of(targetOre));
+    }
+
+    /**
+     * Find the highest priority, then nearest, ore detected by a precompiled matcher
+     */
+    @Nullable
+    public static BlockPos findNearestOre(Level level, BlockPos playerPos, int range, OreMatcher matcher) {
+        OreHit hit = findNearestHit(level, playerPos, range, matcher);
+        return hit != null ? hit.pos() : null;
+    }
+
+    /**
+     * Find the highest priority, then nearest, ore in range together with its ore type
+     */
+    @Nullable
+    public static OreHit findNearestHit(Level level, BlockPos playerPos, int range, OreMatcher matcher) {
+        matcher = OreGenerationProfile.prune(level, matcher);
+        BoundingBox bounds = getScanBounds(level, playerPos, range, matcher);
+        if (bounds == null) {
+            return null;
+        }
+        return findNearestHit(sourceFor(level), playerPos, bounds, matcher);
+    }
+
+    /**
+     * Find the highest priority, then nearest, ore inside the bounds, reading sections from any source.
+     * This does not touch the level itself, so it is safe to run off the server thread on a {@link SectionSnapshot}.
+     */
+    @Nullable
+    public static OreHit findNearestHit(OreSource source, BlockPos center, BoundingBox bounds, OreMatcher matcher) {
+        return findNearestHit(source, ScanShape.cube(center, 0), bounds, matcher);
+    }
+
+    /**
+     * Find the highest priority, then nearest, ore inside both the shape and the bounds
+     */
+    @Nullable
+    public static OreHit findNearestHit(OreSource source, ScanShape shape, BoundingBox bounds, OreMatcher matcher) {
+        if (matcher.getOres().isEmpty()) {
+            return null;
+        }
+
+        ScanMetrics.Scan scan = ScanMetrics.startScan(ScanMetrics.ScanKind.NEAREST);
+        BlockPos center = shape.center();
+        List<SectionEntry> sections = getSectionsByDistance(shape, bounds);
+        OreHit hit = null;
+
+        // Search one priority at a time, best first: any hit of a better priority wins regardless of distance,
+        // so the first priority with a hit in range holds the answer
+        for (OreMatcher priorityGroup : matcher.getPriorityGroups()) {
+            NearestOre nearest = new NearestOre(center);
+
+            for (SectionEntry section : sections) {
+                // Sections are sorted by distance, so none of the remaining ones can hold anything closer
+                if (nearest.hasHit() && section.distanceSqr() > nearest.bestDistance) {
+                    break;
+                }
+                scan.section(source.visitSection(section.x(), section.y(), section.z(), bounds, priorityGroup, shape.filter(nearest)));
+            }
+
+            if (nearest.hasHit()) {
+                hit = nearest.toHit();
+                break;
+            }
+        }
+
+        scan.finish(hit != null);
+        return hit;
+    }
+
+    /**
+     * Collect the nearest few ores of each type inside the shape and how many of each there are, in a single pass.
+     * Unlike {@link #findNearestHit} this visits every section the shape touches, since the counts need all of them,
+     * unless {@link Config#scanResultHits} is 0: then only the best ore is kept, and the scan stops as soon as it is found.
+     *
+     * @param bounds The shape's box, clamped to what is worth scanning
+     */
+    public static ScanResult scan(OreSource source, ScanShape shape, BoundingBox bounds, OreMatcher matcher) {
+        if (Config.scanResultHits <= 0) {
+            return ScanResult.of(shape.center(), matcher, findNearestHit(source, shape, bounds, matcher));
+        }
 
-        // Scan in a cube around the player
-        for (int x = -range; x <= range; x++) {
-            for (int y = -range; y <= range; y++) {
-                for (int z = -range; z <= range; z++) {
-                    BlockPos checkPos = playerPos.offset(x, y, z);
-                    BlockState state = level.getBlockState(checkPos);
-                    Block block = state.getBlock();
-
-                    // Check if this block matches any of our target ores
-                    for (OreType oreType : targetOres) {
-                        if (oreType.matches(block)) {
-                            int priority = oreType.getPriority();
-                            double distance = playerPos.distSqr(checkPos);
-
-                            // Select if: higher priority (lower number) OR same priority but closer
-                            if (priority < bestPriority || (priority == bestPriority && distance < bestDistance)) {
-                                bestPriority = priority;
-                                bestDistance = distance;
-                                bestPos = checkPos;
-                            }
-                            break; // Found a match, no need to check other ore types
+        ScanMetrics.Scan scan = ScanMetrics.startScan(ScanMetrics.ScanKind.FULL);
+        ScanResult.Builder builder = ScanResult.builder(shape.center(), matcher, Config.scanResultHits);
+        OreVisitor visitor = shape.filter(builder);
+
+        if (!matcher.getOres().isEmpty()) {
+            for (int sectionX = SectionPos.blockToSectionCoord(bounds.minX()); sectionX <= SectionPos.blockToSectionCoord(bounds.maxX()); sectionX++) {
+                for (int sectionZ = SectionPos.blockToSectionCoord(bounds.minZ()); sectionZ <= SectionPos.blockToSectionCoord(bounds.maxZ()); sectionZ++) {
+                    for (int sectionY = SectionPos.blockToSectionCoord(bounds.minY()); sectionY <= SectionPos.blockToSectionCoord(bounds.maxY()); sectionY++) {
+                        if (shape.intersectsSection(sectionX, sectionY, sectionZ)) {
+                            scan.section(source.visitSection(sectionX, sectionY, sectionZ, bounds, matcher, visitor));
                         }
                     }
                 }
             }
         }
 
-        return bestPos;
+        scan.finish(builder.hasHits());
+        return builder.build();
     }
 
     /**
-     * Find the nearest ore of a specific single type
+     * Count how many ores of specified types are in range
+     */
+    public static int countOresInRange(Level level, BlockPos playerPos, int range, List<OreType> targetOres) {
+        OreMatcher matcher = OreGenerationProfile.prune(level, OreMatcher.of(targetOres));
+        BoundingBox bounds = getScanBounds(level, playerPos, range, matcher);
+        if (bounds == null) {
+            return 0;
+        }
+        return countOres(sourceFor(level), bounds, matcher);
+    }
+
+    /**
+     * Count the ores inside the bounds, reading sections from any source
+     */
+    public static int countOres(OreSource source, BoundingBox bounds, OreMatcher matcher) {
+        ScanMetrics.Scan scan = ScanMetrics.startScan(ScanMetrics.ScanKind.COUNT);
+        int[] count = new int[1];
+        OreVisitor counter = (oreType, x, y, z) -> count[0]++;
+
+        for (int sectionX = SectionPos.blockToSectionCoord(bounds.minX()); sectionX <= SectionPos.blockToSectionCoord(bounds.maxX()); sectionX++) {
+            for (int sectionZ = SectionPos.blockToSectionCoord(bounds.minZ()); sectionZ <= SectionPos.blockToSectionCoord(bounds.maxZ()); sectionZ++) {
+                for (int sectionY = SectionPos.blockToSectionCoord(bounds.minY()); sectionY <= SectionPos.blockToSectionCoord(bounds.maxY()); sectionY++) {
+                    scan.section(source.visitSection(sectionX, sectionY, sectionZ, bounds, matcher, counter));
+                }
+            }
+        }
+
+        scan.finish(count[0] > 0);
+        return count[0];
+    }
+
+    /**
+     * Get the cube around the player clamped to the build height, or null if none of it is inside the world
      */
     @Nullable
-    public static BlockPos findNearestOre(Level level, BlockPos playerPos, int range, OreType targetOre) {
-        return findNearestOre(level, playerPos, range, List.of(targetOre));
+    public static BoundingBox getScanBounds(Level level, BlockPos center, int range) {
+        return clampToWorld(level, ScanShape.cube(center, range).getBox());
     }
 
     /**
-     * Count how many ores of specified types are in range
+     * Get the box of the shape clamped to the build height and to the heights the matcher's ores
+     * generate at, or null if there is nothing left to scan
      */
-    public static int countOresInRange(Level level, BlockPos playerPos, int range, List<OreType> targetOres) {
-        int count = 0;
-
-        for (int x = -range; x <= range; x++) {
-            for (int y = -range; y <= range; y++) {
-                for (int z = -range; z <= range; z++) {
-                    BlockPos checkPos = playerPos.offset(x, y, z);
-                    BlockState state = level.getBlockState(checkPos);
-                    Block block = state.getBlock();
-
-                    for (OreType oreType : targetOres) {
-                        if (oreType.matches(block)) {
-                            count++;
-                            break;
-                        }
+    @Nullable
+    public static BoundingBox getScanBounds(Level level, ScanShape shape, OreMatcher matcher) {
+        BoundingBox bounds = clampToWorld(level, shape.getBox());
+        return bounds != null ? OreGenerationProfile.clamp(level, bounds, matcher) : null;
+    }
+
+    /**
+     * Clamp a box to the build height, or get null if none of it is inside the world
+     */
+    @Nullable
+    private static BoundingBox clampToWorld(Level level, BoundingBox box) {
+        // Nothing exists outside the build height, so there is no point scanning it
+        int minY = Math.max(box.minY(), level.getMinBuildHeight());
+        int maxY = Math.min(box.maxY(), level.getMaxBuildHeight() - 1);
+        if (minY > maxY) {
+            return null;
+        }
+        if (minY == box.minY() && maxY == box.maxY()) {
+            return box;
+        }
+        return new BoundingBox(box.minX(), minY, box.minZ(), box.maxX(), maxY, box.maxZ());
+    }
+
+    /**
+     * Get the cube around the player clamped to the build height and to the heights the matcher's ores
+     * generate at, or null if there is nothing left to scan
+     */
+    @Nullable
+    public static BoundingBox getScanBounds(Level level, BlockPos center, int range, OreMatcher matcher) {
+        BoundingBox bounds = getScanBounds(level, center, range);
+        return bounds != null ? OreGenerationProfile.clamp(level, bounds, matcher) : null;
+    }
+
+    /**
+     * Get the parts of the current volume that were not in the previous one, as non-overlapping slabs
+     */
+    public static List<BoundingBox> getExposedSlabs(@Nullable BoundingBox previous, BoundingBox current) {
+        if (previous == null || !previous.intersects(current)) {
+            return List.of(current);
+        }
+
+        List<BoundingBox> slabs = new ArrayList<>();
+        // Peel off the X slabs first, then the Y slabs within the X overlap, then the Z slabs within both
+        int minX = Math.max(previous.minX(), current.minX());
+        int maxX = Math.min(previous.maxX(), current.maxX());
+        if (current.minX() < minX) {
+            slabs.add(new BoundingBox(current.minX(), current.minY(), current.minZ(), minX - 1, current.maxY(), current.maxZ()));
+        }
+        if (current.maxX() > maxX) {
+            slabs.add(new BoundingBox(maxX + 1, current.minY(), current.minZ(), current.maxX(), current.maxY(), current.maxZ()));
+        }
+
+        int minY = Math.max(previous.minY(), current.minY());
+        int maxY = Math.min(previous.maxY(), current.maxY());
+        if (current.minY() < minY) {
+            slabs.add(new BoundingBox(minX, current.minY(), current.minZ(), maxX, minY - 1, current.maxZ()));
+        }
+        if (current.maxY() > maxY) {
+            slabs.add(new BoundingBox(minX, maxY + 1, current.minZ(), maxX, current.maxY(), current.maxZ()));
+        }
+
+        int minZ = Math.max(previous.minZ(), current.minZ());
+        int maxZ = Math.min(previous.maxZ(), current.maxZ());
+        if (current.minZ() < minZ) {
+            slabs.add(new BoundingBox(minX, minY, current.minZ(), maxX, maxY, minZ - 1));
+        }
+        if (current.maxZ() > maxZ) {
+            slabs.add(new BoundingBox(minX, minY, maxZ + 1, maxX, maxY, current.maxZ()));
+        }
+
+        return slabs;
+    }
+
+    /**
+     * Pick the better of two hits by priority, then distance to the center
+     */
+    @Nullable
+    public static OreHit pickBetter(BlockPos center, @Nullable OreHit first, @Nullable OreHit second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        int firstPriority = first.oreType().getPriority();
+        int secondPriority = second.oreType().getPriority();
+        if (firstPriority != secondPriority) {
+            return firstPriority < secondPriority ? first : second;
+        }
+        return center.distSqr(second.pos()) < center.distSqr(first.pos()) ? second : first;
+    }
+
+    /**
+     * Get the live source of ores for a level.
+     * On the server the ores come from the {@link OreIndex}, or else from the shared {@link SectionScanCache};
+     * elsewhere the sections are read directly.
+     * Sections whose biomes cannot generate the ores are not read.
+     * Whatever the source, it must only be used on the level's own thread.
+     */
+    public static OreSource sourceFor(Level level) {
+        OreIndex index = OreIndex.get(level);
+        if (index != null) {
+            // Sections are indexed as the scan first reaches them, and what that reads counts as the scan's own reads
+            return (sectionX, sectionY, sectionZ, bounds, matcher, visitor) ->
+                    index.ensureIndexed(level, sectionX, sectionY, sectionZ)
+                            + index.visitSection(sectionX, sectionY, sectionZ, bounds, matcher, visitor);
+        }
+        SectionScanCache cache = SectionScanCache.get(level);
+        if (cache != null) {
+            return (sectionX, sectionY, sectionZ, bounds, matcher, visitor) ->
+                    cache.visitSection(level, sectionX, sectionY, sectionZ, bounds, matcher, visitor);
+        }
+        OreGenerationProfile filter = OreGenerationProfile.getFilter(level);
+        return (sectionX, sectionY, sectionZ, bounds, matcher, visitor) -> {
+            LevelChunk chunk = getChunkForScan(level, sectionX, sectionZ);
+            if (chunk == null) {
+                return 0;
+            }
+            LevelChunkSection section = chunk.getSection(level.getSectionIndexFromSectionY(sectionY));
+            if (filter != null && !filter.mayHold(level, section, sectionX, sectionY, sectionZ, matcher)) {
+                return 0;
+            }
+            return scanSection(section, sectionX, sectionY, sectionZ, bounds, matcher, visitor);
+        };
+    }
+
+    /**
+     * Get a chunk to scan, or null if it is not loaded and scans may not load chunks.
+     * On the server this only returns chunks that are already at full status, so scans never
+     * load or generate chunks while loadedChunksOnly is on.
+     */
+    @Nullable
+    public static LevelChunk getChunkForScan(Level level, int chunkX, int chunkZ) {
+        if (Config.loadedChunksOnly && level instanceof ServerLevel serverLevel) {
+            return serverLevel.getChunkSource().getChunkNow(chunkX, chunkZ);
+        }
+        return level.getChunk(chunkX, chunkZ);
+    }
+
+    /**
+     * Get every chunk section touching the bounds, nearest to the center first
+     */
+    static List<SectionEntry> getSectionsByDistance(BlockPos center, BoundingBox bounds) {
+        return getSectionsByDistance(ScanShape.cube(center, 0), bounds);
+    }
+
+    /**
+     * Get every chunk section of the bounds that the shape touches, nearest to its center first
+     */
+    static List<SectionEntry> getSectionsByDistance(ScanShape shape, BoundingBox bounds) {
+        List<SectionEntry> sections = new ArrayList<>();
+        BlockPos center = shape.center();
+
+        for (int sectionX = SectionPos.blockToSectionCoord(bounds.minX()); sectionX <= SectionPos.blockToSectionCoord(bounds.maxX()); sectionX++) {
+            int dx = distanceToSpan(center.getX(), bounds.minX(), bounds.maxX(), sectionX);
+            for (int sectionY = SectionPos.blockToSectionCoord(bounds.minY()); sectionY <= SectionPos.blockToSectionCoord(bounds.maxY()); sectionY++) {
+                int dy = distanceToSpan(center.getY(), bounds.minY(), bounds.maxY(), sectionY);
+                for (int sectionZ = SectionPos.blockToSectionCoord(bounds.minZ()); sectionZ <= SectionPos.blockToSectionCoord(bounds.maxZ()); sectionZ++) {
+                    if (!shape.intersectsSection(sectionX, sectionY, sectionZ)) {
+                        continue;
+                    }
+                    int dz = distanceToSpan(center.getZ(), bounds.minZ(), bounds.maxZ(), sectionZ);
+                    sections.add(new SectionEntry(sectionX, sectionY, sectionZ, (double) dx * dx + (double) dy * dy + (double) dz * dz));
+                }
+            }
+        }
+
+        sections.sort(Comparator.comparingDouble(SectionEntry::distanceSqr));
+        return sections;
+    }
+
+    /**
+     * Distance along one axis from a coordinate to the nearest block of a section, clipped to the bounds
+     */
+    private static int distanceToSpan(int coord, int boundsMin, int boundsMax, int sectionCoord) {
+        int from = Math.max(boundsMin, SectionPos.sectionToBlockCoord(sectionCoord));
+        int to = Math.min(boundsMax, SectionPos.sectionToBlockCoord(sectionCoord, 15));
+        if (coord < from) {
+            return from - coord;
+        }
+        return coord > to ? coord - to : 0;
+    }
+
+    /**
+     * Report every target ore of a single chunk section that lies inside the bounds.
+     * Sections that are all air, or whose palette holds none of the target ore states, are skipped
+     * before any single block is read.
+     *
+     * @return The number of blocks read
+     */
+    static int scanSection(LevelChunkSection section, int sectionX, int sectionY, int sectionZ,
+                           BoundingBox bounds, OreMatcher matcher, OreVisitor visitor) {
+        if (section.hasOnlyAir()) {
+            return 0;
+        }
+        return scanStates(section.getStates(), sectionX, sectionY, sectionZ, bounds, matcher, visitor);
+    }
+
+    /**
+     * Report every target ore of a section's block states that lies inside the bounds.
+     * States whose palette holds none of the target ore states are skipped before any single block is read.
+     * Blocks are read in y, z, x order, which is the order the section stores them in, and nothing is allocated per block.
+     *
+     * @return The number of blocks read
+     */
+    static int scanStates(PalettedContainer<BlockState> states, int sectionX, int sectionY, int sectionZ,
+                          BoundingBox bounds, OreMatcher matcher, OreVisitor visitor) {
+        // The palette lists every state in the section, so it tells us cheaply if an ore can be there at all
+        if (!states.maybeHas(matcher::matches)) {
+            return 0;
+        }
+
+        int fromX = Math.max(bounds.minX(), SectionPos.sectionToBlockCoord(sectionX));
+        int toX = Math.min(bounds.maxX(), SectionPos.sectionToBlockCoord(sectionX, 15));
+        int fromY = Math.max(bounds.minY(), SectionPos.sectionToBlockCoord(sectionY));
+        int toY = Math.min(bounds.maxY(), SectionPos.sectionToBlockCoord(sectionY, 15));
+        int fromZ = Math.max(bounds.minZ(), SectionPos.sectionToBlockCoord(sectionZ));
+        int toZ = Math.min(bounds.maxZ(), SectionPos.sectionToBlockCoord(sectionZ, 15));
+
+        // Runs of the same state are common, so the last lookup is reused until the state changes
+        BlockState lastState = null;
+        OreType lastOre = null;
+        for (int y = fromY; y <= toY; y++) {
+            int localY = SectionPos.sectionRelative(y);
+            for (int z = fromZ; z <= toZ; z++) {
+                int localZ = SectionPos.sectionRelative(z);
+                for (int x = fromX; x <= toX; x++) {
+                    BlockState state = states.get(SectionPos.sectionRelative(x), localY, localZ);
+                    if (state != lastState) {
+                        lastState = state;
+                        lastOre = matcher.match(state);
+                    }
+                    if (lastOre != null) {
+                        visitor.visit(lastOre, x, y, z);
                     }
                 }
             }
         }
 
-        return count;
+        return (toX - fromX + 1) * (toY - fromY + 1) * (toZ - fromZ + 1);
+    }
+
+    /**
+     * Receives every target ore found by a section scan
+     */
+    @FunctionalInterface
+    public interface OreVisitor {
+        void visit(OreType oreType, int x, int y, int z);
+    }
+
+    /**
+     * Somewhere a scan can read the ores of a chunk section from.
+     * Returns the number of blocks it had to read, including any read to index the section first,
+     * which is 0 when the answer came from an index or the palette.
+     */
+    @FunctionalInterface
+    public interface OreSource {
+        int visitSection(int sectionX, int sectionY, int sectionZ, BoundingBox bounds, OreMatcher matcher, OreVisitor visitor);
+    }
+
+    /**
+     * An ore found by a scan
+     */
+    public record OreHit(BlockPos pos, OreType oreType) {
+    }
+
+    /**
+     * A chunk section to visit, with the squared distance from the scan center to its nearest block
+     */
+    record SectionEntry(int x, int y, int z, double distanceSqr) {
+    }
+
+    /**
+     * Keeps the highest priority, then nearest, ore seen so far.
+     * The position is kept packed, so only the final hit allocates.
+     */
+    static class NearestOre implements OreVisitor {
+        private final BlockPos center;
+        long bestPos;
+        @Nullable
+        OreType bestOre;
+        int bestPriority = Integer.MAX_VALUE;
+        double bestDistance = Double.MAX_VALUE;
+
+        NearestOre(BlockPos center) {
+            this.center = center;
+        }
+
+        boolean hasHit() {
+            return bestOre != null;
+        }
+
+        @Nullable
+        OreHit toHit() {
+            return bestOre != null ? new OreHit(BlockPos.of(bestPos), bestOre) : null;
+        }
+
+        @Override
+        public void visit(OreType oreType, int x, int y, int z) {
+            int priority = oreType.getPriority();
+            double distance = center.distToLowCornerSqr(x, y, z);
+
+            // Select if: higher priority (lower number) OR same priority but closer
+            if (priority < bestPriority || (priority == bestPriority && distance < bestDistance)) {
+                bestPriority = priority;
+                bestDistance = distance;
+                bestPos = BlockPos.asLong(x, y, z);
+                bestOre = oreType;
+            }
+        }
     }
 
     /**
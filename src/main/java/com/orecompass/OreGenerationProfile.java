@@ -0,0 +1,302 @@
+package com.orecompass;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.Holder;
+import net.minecraft.core.HolderSet;
+import net.minecraft.nbt.CollectionTag;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.chunk.ChunkGenerator;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.NoiseBasedChunkGenerator;
+import net.minecraft.world.level.levelgen.VerticalAnchor;
+import net.minecraft.world.level.levelgen.WorldGenerationContext;
+import net.minecraft.world.level.levelgen.feature.configurations.OreConfiguration;
+import net.minecraft.world.level.levelgen.placement.PlacedFeature;
+import net.minecraft.world.level.levelgen.placement.PlacementModifier;
+import net.minecraft.world.level.levelgen.placement.PlacementModifierType;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Which ores generate in a dimension, in which of its biomes and at which heights, read from the ore features
+ * its generator places. Built once per dimension and dropped when datapacks reload, since worldgen can change with them.
+ */
+public class OreGenerationProfile {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Map<ResourceKey<Level>, OreGenerationProfile> PROFILES = new HashMap<>();
+
+    // Ore veins come from the noise router rather than from features; these are OreVeinifier's heights
+    private static final int COPPER_VEIN_MIN_Y = 0;
+    private static final int COPPER_VEIN_MAX_Y = 50;
+    private static final int IRON_VEIN_MIN_Y = -60;
+    private static final int IRON_VEIN_MAX_Y = -8;
+
+    private final int[] minY = new int[OreType.values().length];
+    private final int[] maxY = new int[OreType.values().length];
+    private final Reference2IntMap<Holder<Biome>> biomeMasks = new Reference2IntOpenHashMap<>();
+    private final Int2ObjectMap<Predicate<Holder<Biome>>> biomeFilters = new Int2ObjectOpenHashMap<>();
+    private final int worldMinY;
+    private final int worldMaxY;
+    private int generatedMask;
+
+    private OreGenerationProfile(ServerLevel level) {
+        this.worldMinY = level.getMinBuildHeight();
+        this.worldMaxY = level.getMaxBuildHeight() - 1;
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        Arrays.fill(maxY, Integer.MIN_VALUE);
+        // Biomes that are not part of the generator, such as ones set by commands, may hold anything
+        biomeMasks.defaultReturnValue(-1);
+
+        ChunkGenerator generator = level.getChunkSource().getGenerator();
+        int veinMask = 0;
+        if (generator instanceof NoiseBasedChunkGenerator noiseGenerator && noiseGenerator.generatorSettings().value().oreVeinsEnabled()) {
+            veinMask |= addBand(OreType.COPPER, COPPER_VEIN_MIN_Y, COPPER_VEIN_MAX_Y);
+            veinMask |= addBand(OreType.IRON, IRON_VEIN_MIN_Y, IRON_VEIN_MAX_Y);
+        }
+
+        WorldGenerationContext context = new WorldGenerationContext(generator, level);
+        for (Holder<Biome> biome : generator.getBiomeSource().possibleBiomes()) {
+            int biomeMask = veinMask;
+            for (HolderSet<PlacedFeature> step : generator.getBiomeGenerationSettings(biome).features()) {
+                for (Holder<PlacedFeature> feature : step) {
+                    biomeMask |= addFeature(feature.value(), context);
+                }
+            }
+            biomeMasks.put(biome, biomeMask);
+            generatedMask |= biomeMask;
+        }
+    }
+
+    /**
+     * Get the profile of a level's dimension, building it on first use. Must run on the server thread.
+     */
+    public static OreGenerationProfile get(ServerLevel level) {
+        return PROFILES.computeIfAbsent(level.dimension(), key -> new OreGenerationProfile(level));
+    }
+
+    static void remove(Level level) {
+        PROFILES.remove(level.dimension());
+    }
+
+    static void clear() {
+        PROFILES.clear();
+    }
+
+    /**
+     * Get the profile to filter a level's scans by, or null if scans there are not filtered.
+     * Dimensions that generate no ores at all, like flat or void worlds, are never filtered,
+     * since whatever ores they have were put there some other way.
+     */
+    @Nullable
+    public static OreGenerationProfile getFilter(Level level) {
+        if (!Config.filterOresByWorldgen || !(level instanceof ServerLevel serverLevel)) {
+            return null;
+        }
+        OreGenerationProfile profile = get(serverLevel);
+        return profile.generatedMask != 0 ? profile : null;
+    }
+
+    /**
+     * Drop the matcher's ores that never generate in the level
+     */
+    public static OreMatcher prune(Level level, OreMatcher matcher) {
+        OreGenerationProfile profile = getFilter(level);
+        return profile != null ? matcher.retain(profile.generatedMask) : matcher;
+    }
+
+    /**
+     * Check if any ore feature of the dimension places the given ore
+     */
+    public boolean isGenerated(OreType oreType) {
+        return (generatedMask & (1 << oreType.ordinal())) != 0;
+    }
+
+    /**
+     * Check if any biome of the section, or of a section next to it, can generate one of the matcher's ores.
+     * An ore blob is placed by the biome at its origin but can reach up to a dozen blocks past it,
+     * so it may spill into a neighboring section of another biome. Neighbors in chunks that are not loaded are assumed to hold ores.
+     */
+    public boolean mayHold(Level level, LevelChunkSection section, int sectionX, int sectionY, int sectionZ, OreMatcher matcher) {
+        Predicate<Holder<Biome>> filter = getBiomeFilter(matcher);
+        // Like block states, the biome palette lists every biome in the section
+        if (section.getBiomes().maybeHas(filter)) {
+            return true;
+        }
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                LevelChunk chunk = level.getChunkSource().getChunkNow(sectionX + dx, sectionZ + dz);
+                if (chunk == null) {
+                    return true;
+                }
+                for (int dy = -1; dy <= 1; dy++) {
+                    int y = sectionY + dy;
+                    if ((dx == 0 && dy == 0 && dz == 0) || y < level.getMinSection() || y >= level.getMaxSection()) {
+                        continue;
+                    }
+                    if (chunk.getSection(level.getSectionIndexFromSectionY(y)).getBiomes().maybeHas(filter)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private Predicate<Holder<Biome>> getBiomeFilter(OreMatcher matcher) {
+        Predicate<Holder<Biome>> filter = biomeFilters.get(matcher.getMask());
+        if (filter == null) {
+            int mask = matcher.getMask();
+            filter = biome -> (biomeMasks.getInt(biome) & mask) != 0;
+            biomeFilters.put(mask, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Get the lowest height the ore generates at, or the bottom of the world if no feature places it
+     */
+    public int getMinY(OreType oreType) {
+        return isGenerated(oreType) ? Math.max(worldMinY, minY[oreType.ordinal()]) : worldMinY;
+    }
+
+    /**
+     * Get the highest height the ore generates at, or the top of the world if no feature places it
+     */
+    public int getMaxY(OreType oreType) {
+        return isGenerated(oreType) ? Math.min(worldMaxY, maxY[oreType.ordinal()]) : worldMaxY;
+    }
+
+    /**
+     * Record the heights of the ores an ore feature places
+     *
+     * @return The mask of the ores the feature places
+     */
+    private int addFeature(PlacedFeature feature, WorldGenerationContext context) {
+        if (!(feature.feature().value().config() instanceof OreConfiguration config)) {
+            return 0;
+        }
+
+        // Without a height range the feature can place anywhere in the world
+        int featureMinY = worldMinY;
+        int featureMaxY = worldMaxY;
+        for (PlacementModifier modifier : feature.placement()) {
+            if (modifier.type() == PlacementModifierType.HEIGHT_RANGE) {
+                int[] range = resolveHeightRange(modifier, context);
+                if (range != null) {
+                    featureMinY = range[0];
+                    featureMaxY = range[1];
+                }
+            }
+        }
+
+        int mask = 0;
+        for (OreConfiguration.TargetBlockState target : config.targetStates) {
+            for (OreType oreType : OreType.values()) {
+                if (oreType.matches(target.state)) {
+                    // Ore blobs reach a few blocks past their placement height
+                    mask |= addBand(oreType, featureMinY - config.size, featureMaxY + config.size);
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Widen the heights of an ore to include the band
+     *
+     * @return The ore's bit
+     */
+    private int addBand(OreType oreType, int bandMinY, int bandMaxY) {
+        int ordinal = oreType.ordinal();
+        generatedMask |= 1 << ordinal;
+        minY[ordinal] = Math.min(minY[ordinal], bandMinY);
+        maxY[ordinal] = Math.max(maxY[ordinal], bandMaxY);
+        return 1 << ordinal;
+    }
+
+    /**
+     * Get the lowest and highest height a height range placement can pick, or null if it cannot be read.
+     * The height provider keeps its anchors private, so they are read back from its encoded form;
+     * every provider type spans from its lowest to its highest anchor.
+     */
+    @Nullable
+    private static int[] resolveHeightRange(PlacementModifier modifier, WorldGenerationContext context) {
+        Tag encoded = PlacementModifier.CODEC.encodeStart(NbtOps.INSTANCE, modifier)
+                .resultOrPartial(error -> LOGGER.warn("Could not read ore height range: {}", error))
+                .orElse(null);
+        if (encoded == null) {
+            return null;
+        }
+
+        int[] range = {Integer.MAX_VALUE, Integer.MIN_VALUE};
+        collectAnchors(encoded, context, range);
+        return range[0] <= range[1] ? range : null;
+    }
+
+    private static void collectAnchors(Tag tag, WorldGenerationContext context, int[] range) {
+        if (tag instanceof CompoundTag compound) {
+            VerticalAnchor anchor = VerticalAnchor.CODEC.parse(NbtOps.INSTANCE, compound).result().orElse(null);
+            if (anchor != null) {
+                int y = anchor.resolveY(context);
+                range[0] = Math.min(range[0], y);
+                range[1] = Math.max(range[1], y);
+                return;
+            }
+            for (String key : compound.getAllKeys()) {
+                collectAnchors(compound.get(key), context, range);
+            }
+        } else if (tag instanceof CollectionTag<?> list) {
+            for (Tag element : list) {
+                collectAnchors(element, context, range);
+            }
+        }
+    }
+
+    /**
+     * Narrow the bounds to the heights at which any of the matcher's ores generates in the level.
+     * Ores outside their generation heights, such as ones placed by players, are not found while this is on.
+     *
+     * @return The narrowed bounds, or null if none of the ores can generate inside them
+     */
+    @Nullable
+    public static BoundingBox clamp(Level level, BoundingBox bounds, OreMatcher matcher) {
+        if (!Config.clampToOreHeights || !(level instanceof ServerLevel serverLevel)) {
+            return bounds;
+        }
+
+        OreGenerationProfile profile = get(serverLevel);
+        int bandMinY = Integer.MAX_VALUE;
+        int bandMaxY = Integer.MIN_VALUE;
+        for (OreType oreType : matcher.getOres()) {
+            bandMinY = Math.min(bandMinY, profile.getMinY(oreType));
+            bandMaxY = Math.max(bandMaxY, profile.getMaxY(oreType));
+        }
+
+        int minY = Math.max(bounds.minY(), bandMinY);
+        int maxY = Math.min(bounds.maxY(), bandMaxY);
+        if (minY > maxY) {
+            return null;
+        }
+        if (minY == bounds.minY() && maxY == bounds.maxY()) {
+            return bounds;
+        }
+        return new BoundingBox(bounds.minX(), minY, bounds.minZ(), bounds.maxX(), maxY, bounds.maxZ());
+    }
+}
@@ -0,0 +1,450 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of ore positions for a server level, keyed by chunk section.
+ * Filled section by section the first time a scan reads them and kept up to date from block updates, so a compass query
+ * costs about the number of ores nearby instead of the scanned volume.
+ * The ores of each indexed section are also saved with its chunk, so indexing it again after a reload only checks them instead of rescanning it.
+ */
+public class OreIndex {
+    private static final Map<ResourceKey<Level>, OreIndex> INDEXES = new HashMap<>();
+    private static final OreType[] ORE_TYPES = OreType.values();
+
+    // Saved ores are dropped when the format or the blocks counted as ores change
+    private static final String SAVE_KEY = OreCompass.MODID + ":ore_index";
+    private static final int SAVE_VERSION = 1;
+    private static volatile int oreStamp;
+
+    private final int minSection;
+    private final int maxSection;
+    private final Long2ObjectMap<SectionOres> sections = new Long2ObjectOpenHashMap<>();
+    private final LongSet indexedSections = new LongOpenHashSet();
+    // Saved ores of loaded sections that no scan has read yet, one entry per ore as written by createSections
+    private final Long2ObjectMap<int[]> savedSections = new Long2ObjectOpenHashMap<>();
+    private long unloadingChunk = Long.MAX_VALUE;
+    @Nullable
+    private CompoundTag unloadingSave;
+
+    private OreIndex(Level level) {
+        this.minSection = level.getMinSection();
+        this.maxSection = level.getMaxSection();
+    }
+
+    /**
+     * Get the index for a level, or null if the level is not indexed (client levels, or index disabled)
+     */
+    @Nullable
+    public static OreIndex get(Level level) {
+        if (!Config.useOreIndex || !(level instanceof ServerLevel)) {
+            return null;
+        }
+        return INDEXES.computeIfAbsent(level.dimension(), key -> new OreIndex(level));
+    }
+
+    /**
+     * Drop the index of a level that is being unloaded
+     */
+    static void remove(Level level) {
+        INDEXES.remove(level.dimension());
+    }
+
+    /**
+     * Drop the indexes of all levels
+     */
+    static void clear() {
+        INDEXES.clear();
+        oreStamp = 0;
+    }
+
+    public boolean isIndexed(int sectionX, int sectionY, int sectionZ) {
+        return indexedSections.contains(SectionPos.asLong(sectionX, sectionY, sectionZ));
+    }
+
+    /**
+     * Make sure the chunk section is indexed, if it can be scanned.
+     * Sections are indexed one at a time as scans reach them, so a scan's budget covers the indexing too.
+     *
+     * @return The number of blocks read to index it, which is 0 if it already was
+     */
+    public int ensureIndexed(Level level, int sectionX, int sectionY, int sectionZ) {
+        if (sectionY < minSection || sectionY >= maxSection || isIndexed(sectionX, sectionY, sectionZ)) {
+            return 0;
+        }
+        LevelChunk chunk = OreDetector.getChunkForScan(level, sectionX, sectionZ);
+        if (chunk == null) {
+            return 0;
+        }
+        return indexSection(chunk.getSection(chunk.getSectionIndexFromSectionY(sectionY)), sectionX, sectionY, sectionZ);
+    }
+
+    /**
+     * Record every ore of a chunk section, from its saved ores if they still check out, or else by scanning it
+     *
+     * @return The number of blocks read
+     */
+    private int indexSection(LevelChunkSection section, int sectionX, int sectionY, int sectionZ) {
+        long sectionKey = SectionPos.asLong(sectionX, sectionY, sectionZ);
+        indexedSections.add(sectionKey);
+
+        int reads = 0;
+        int[] saved = savedSections.remove(sectionKey);
+        if (saved != null) {
+            int[] counts = countOres(section);
+            reads += saved.length + (counts != null ? LevelChunkSection.SECTION_SIZE : 0);
+            if (restoreSection(section, sectionX, sectionY, sectionZ, saved, counts)) {
+                ScanMetrics.recordIndexedSection(true);
+                return reads;
+            }
+        }
+        ScanMetrics.recordIndexedSection(false);
+
+        BoundingBox bounds = new BoundingBox(
+                SectionPos.sectionToBlockCoord(sectionX), SectionPos.sectionToBlockCoord(sectionY), SectionPos.sectionToBlockCoord(sectionZ),
+                SectionPos.sectionToBlockCoord(sectionX, 15), SectionPos.sectionToBlockCoord(sectionY, 15), SectionPos.sectionToBlockCoord(sectionZ, 15));
+        return reads + OreDetector.scanSection(section, sectionX, sectionY, sectionZ, bounds, OreMatcher.all(),
+                (oreType, x, y, z) -> add(sectionKey, oreType, BlockPos.asLong(x, y, z)));
+    }
+
+    /**
+     * Count the ores of each type in a section, or get null if its palette holds none.
+     * The counts come straight from the packed block storage, without looking up the state of each block.
+     */
+    @Nullable
+    private static int[] countOres(LevelChunkSection section) {
+        OreMatcher matcher = OreMatcher.all();
+        if (section.hasOnlyAir() || !section.getStates().maybeHas(matcher::matches)) {
+            return null;
+        }
+        int[] counts = new int[OreType.values().length];
+        section.getStates().count((state, count) -> {
+            OreType oreType = matcher.match(state);
+            if (oreType != null) {
+                counts[oreType.ordinal()] += count;
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Index a section from its saved ores, if they still match its blocks.
+     * Every saved ore must still be there, and the section must hold exactly as many ores of each type as were saved,
+     * so an ore added without a block update, such as by another mod or an external editor, is noticed as well.
+     *
+     * @param counts The section's ores of each type, or null if its palette holds none
+     * @return True if the saved ores were used, false if the section must be scanned
+     */
+    private boolean restoreSection(LevelChunkSection section, int sectionX, int sectionY, int sectionZ, int[] entries, @Nullable int[] counts) {
+        if (counts == null) {
+            return entries.length == 0;
+        }
+
+        OreMatcher matcher = OreMatcher.all();
+        OreType[] oreTypes = OreType.values();
+        int[] savedCounts = new int[oreTypes.length];
+        for (int entry : entries) {
+            int ordinal = entry >>> 12;
+            if (ordinal >= oreTypes.length || matcher.match(section.getBlockState(entry & 15, (entry >> 8) & 15, (entry >> 4) & 15)) != oreTypes[ordinal]) {
+                return false;
+            }
+            savedCounts[ordinal]++;
+        }
+        if (!Arrays.equals(savedCounts, counts)) {
+            return false;
+        }
+
+        long sectionKey = SectionPos.asLong(sectionX, sectionY, sectionZ);
+        for (int entry : entries) {
+            int x = SectionPos.sectionToBlockCoord(sectionX, entry & 15);
+            int y = SectionPos.sectionToBlockCoord(sectionY, (entry >> 8) & 15);
+            int z = SectionPos.sectionToBlockCoord(sectionZ, (entry >> 4) & 15);
+            add(sectionKey, oreTypes[entry >>> 12], BlockPos.asLong(x, y, z));
+        }
+        return true;
+    }
+
+    /**
+     * Keep the saved ores read with a chunk until a scan first indexes each of its sections
+     */
+    public void readChunk(ChunkPos chunkPos, CompoundTag chunkTag) {
+        if (!Config.persistOreIndex || !chunkTag.contains(SAVE_KEY, Tag.TAG_COMPOUND)) {
+            return;
+        }
+        CompoundTag saved = chunkTag.getCompound(SAVE_KEY);
+        if (saved.getInt("version") != SAVE_VERSION || saved.getInt("ores") != getOreStamp()) {
+            return;
+        }
+        CompoundTag savedSectionsTag = saved.getCompound("sections");
+        for (int sectionY = minSection; sectionY < maxSection; sectionY++) {
+            String key = Integer.toString(sectionY);
+            long sectionKey = SectionPos.asLong(chunkPos.x, sectionY, chunkPos.z);
+            // Sections still indexed from before the chunk unloaded are already up to date
+            if (savedSectionsTag.contains(key, Tag.TAG_INT_ARRAY) && !indexedSections.contains(sectionKey)) {
+                savedSections.put(sectionKey, savedSectionsTag.getIntArray(key));
+            }
+        }
+    }
+
+    /**
+     * Save the indexed ores of a chunk into its chunk data
+     */
+    public void writeChunk(ChunkPos chunkPos, CompoundTag chunkTag) {
+        if (!Config.persistOreIndex) {
+            return;
+        }
+        CompoundTag saved = getSave(chunkPos);
+        if (saved == null && chunkPos.toLong() == unloadingChunk) {
+            saved = unloadingSave;
+        }
+        if (saved != null) {
+            chunkTag.put(SAVE_KEY, saved);
+        }
+    }
+
+    /**
+     * Prepare for a chunk unloading. Call before {@link #unloadChunk}.
+     * A chunk is saved right after it unloads, so its ores are kept until then in case they are dropped from the index.
+     */
+    public void onChunkUnloading(ChunkPos chunkPos) {
+        CompoundTag saved = Config.persistOreIndex ? getSave(chunkPos) : null;
+        for (int sectionY = minSection; sectionY < maxSection; sectionY++) {
+            savedSections.remove(SectionPos.asLong(chunkPos.x, sectionY, chunkPos.z));
+        }
+        if (saved != null) {
+            unloadingChunk = chunkPos.toLong();
+            unloadingSave = saved;
+        }
+    }
+
+    /**
+     * Get the ores to save with a chunk, or null if none of its sections are known
+     */
+    @Nullable
+    private CompoundTag getSave(ChunkPos chunkPos) {
+        CompoundTag savedSectionsTag = createSections(chunkPos);
+        return !savedSectionsTag.isEmpty() ? wrapSave(savedSectionsTag) : null;
+    }
+
+    /**
+     * Write the ores of every known section of a chunk: the indexed ores, or the ones a section was loaded with
+     * if no scan has read it since. Each ore is one int: its ore type above its position in the section.
+     * Sections that are left out are scanned when they are indexed after loading.
+     */
+    private CompoundTag createSections(ChunkPos chunkPos) {
+        CompoundTag savedSectionsTag = new CompoundTag();
+        IntArrayList entries = new IntArrayList();
+        for (int sectionY = minSection; sectionY < maxSection; sectionY++) {
+            long sectionKey = SectionPos.asLong(chunkPos.x, sectionY, chunkPos.z);
+            if (!indexedSections.contains(sectionKey)) {
+                int[] saved = savedSections.get(sectionKey);
+                if (saved != null) {
+                    savedSectionsTag.putIntArray(Integer.toString(sectionY), saved);
+                }
+                continue;
+            }
+
+            entries.clear();
+            SectionOres ores = sections.get(sectionKey);
+            for (int ordinal = 0; ores != null && ordinal < ores.byOre.length; ordinal++) {
+                LongSet positions = ores.byOre[ordinal];
+                if (positions == null) {
+                    continue;
+                }
+                LongIterator iterator = positions.iterator();
+                while (iterator.hasNext()) {
+                    long packedPos = iterator.nextLong();
+                    entries.add(ordinal << 12 | (BlockPos.getY(packedPos) & 15) << 8 | (BlockPos.getZ(packedPos) & 15) << 4 | (BlockPos.getX(packedPos) & 15));
+                }
+            }
+            // Sections without ores are written too, since a section that is left out is not known
+            savedSectionsTag.putIntArray(Integer.toString(sectionY), entries.toIntArray());
+        }
+
+        return savedSectionsTag;
+    }
+
+    private static CompoundTag wrapSave(CompoundTag savedSectionsTag) {
+        CompoundTag saved = new CompoundTag();
+        saved.putInt("version", SAVE_VERSION);
+        saved.putInt("ores", getOreStamp());
+        saved.put("sections", savedSectionsTag);
+        return saved;
+    }
+
+    /**
+     * Get a hash of which blocks count as which ore, so saves made with other ore tags are not trusted
+     */
+    private static int getOreStamp() {
+        int stamp = oreStamp;
+        if (stamp == 0) {
+            OreMatcher matcher = OreMatcher.all();
+            stamp = 1;
+            for (Block block : BuiltInRegistries.BLOCK) {
+                OreType oreType = matcher.match(block.defaultBlockState());
+                if (oreType != null) {
+                    stamp = 31 * stamp + BuiltInRegistries.BLOCK.getKey(block).hashCode() * 17 + oreType.ordinal();
+                }
+            }
+            // 0 means not computed yet
+            stamp = stamp != 0 ? stamp : 1;
+            oreStamp = stamp;
+        }
+        return stamp;
+    }
+
+    /**
+     * Forget every ore of a chunk column
+     */
+    public void unloadChunk(ChunkPos chunkPos) {
+        for (int sectionY = minSection; sectionY < maxSection; sectionY++) {
+            long sectionKey = SectionPos.asLong(chunkPos.x, sectionY, chunkPos.z);
+            indexedSections.remove(sectionKey);
+            sections.remove(sectionKey);
+        }
+    }
+
+    /**
+     * Update the index after the block at the given position changed to a new state
+     */
+    public void onBlockChanged(BlockPos pos, BlockState state) {
+        long sectionKey = SectionPos.asLong(pos);
+        if (!indexedSections.contains(sectionKey)) {
+            // The ores the section was loaded with would miss this change, and checking them on indexing may not notice
+            savedSections.remove(sectionKey);
+            return;
+        }
+
+        long packedPos = pos.asLong();
+        SectionOres ores = sections.get(sectionKey);
+        if (ores != null && ores.remove(packedPos) && ores.isEmpty()) {
+            sections.remove(sectionKey);
+        }
+
+        OreType oreType = OreMatcher.all().match(state);
+        if (oreType != null) {
+            add(sectionKey, oreType, packedPos);
+        }
+    }
+
+    /**
+     * Check what the index holds for a position against the block that is really there, such as a compass target found missing.
+     * A block set without a block update never reaches {@link #onBlockChanged}, so a section caught holding a wrong ore
+     * is dropped, to be indexed again the next time a scan reaches it.
+     */
+    public void verify(BlockPos pos, BlockState state) {
+        long sectionKey = SectionPos.asLong(pos);
+        if (!indexedSections.contains(sectionKey)) {
+            return;
+        }
+        SectionOres ores = sections.get(sectionKey);
+        OreType indexed = ores != null ? ores.get(pos.asLong()) : null;
+        if (indexed != OreMatcher.all().match(state)) {
+            indexedSections.remove(sectionKey);
+            sections.remove(sectionKey);
+        }
+    }
+
+    /**
+     * Report every indexed target ore of a chunk section that lies inside the bounds.
+     * Always returns 0, since no blocks are read.
+     */
+    public int visitSection(int sectionX, int sectionY, int sectionZ, BoundingBox bounds, OreMatcher matcher, OreDetector.OreVisitor visitor) {
+        SectionOres ores = sections.get(SectionPos.asLong(sectionX, sectionY, sectionZ));
+        if (ores == null) {
+            return 0;
+        }
+
+        for (OreType oreType : matcher.getOres()) {
+            LongSet positions = ores.byOre[oreType.ordinal()];
+            if (positions == null) {
+                continue;
+            }
+
+            LongIterator iterator = positions.iterator();
+            while (iterator.hasNext()) {
+                long packedPos = iterator.nextLong();
+                int x = BlockPos.getX(packedPos);
+                int y = BlockPos.getY(packedPos);
+                int z = BlockPos.getZ(packedPos);
+                if (bounds.isInside(x, y, z)) {
+                    visitor.visit(oreType, x, y, z);
+                }
+            }
+        }
+        return 0;
+    }
+
+    private void add(long sectionKey, OreType oreType, long packedPos) {
+        sections.computeIfAbsent(sectionKey, key -> new SectionOres()).add(oreType, packedPos);
+    }
+
+    /**
+     * Ore positions of a single chunk section, grouped by ore type
+     */
+    private static class SectionOres {
+        private final LongSet[] byOre = new LongSet[OreType.values().length];
+
+        private void add(OreType oreType, long packedPos) {
+            LongSet positions = byOre[oreType.ordinal()];
+            if (positions == null) {
+                positions = new LongOpenHashSet();
+                byOre[oreType.ordinal()] = positions;
+            }
+            positions.add(packedPos);
+        }
+
+        @Nullable
+        private OreType get(long packedPos) {
+            for (int ordinal = 0; ordinal < byOre.length; ordinal++) {
+                if (byOre[ordinal] != null && byOre[ordinal].contains(packedPos)) {
+                    return ORE_TYPES[ordinal];
+                }
+            }
+            return null;
+        }
+
+        private boolean remove(long packedPos) {
+            boolean removed = false;
+            for (LongSet positions : byOre) {
+                if (positions != null && positions.remove(packedPos)) {
+                    removed = true;
+                }
+            }
+            return removed;
+        }
+
+        private boolean isEmpty() {
+            for (LongSet positions : byOre) {
+                if (positions != null && !positions.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
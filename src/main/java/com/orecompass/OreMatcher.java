@@ -0,0 +1,175 @@
+package com.orecompass;
+
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precompiled lookup from block state to ore type for one set of target ores.
+ * Built once per ore set from the block state registry, so matching a block is a single array read
+ * no matter how many blocks or tag entries an ore type has.
+ */
+public class OreMatcher {
+    private static final Map<Integer, OreMatcher> CACHE = new ConcurrentHashMap<>();
+
+    private final List<OreType> ores;
+    private final int mask;
+    private final OreType[] byStateId;
+    @Nullable
+    private volatile List<OreMatcher> priorityGroups;
+
+    private OreMatcher(List<OreType> ores) {
+        this.ores = ores;
+        this.mask = maskOf(ores);
+        this.byStateId = new OreType[Block.BLOCK_STATE_REGISTRY.size()];
+
+        for (BlockState state : Block.BLOCK_STATE_REGISTRY) {
+            // First match in declaration order wins, in case a state is in more than one ore tag
+            for (OreType oreType : ores) {
+                if (oreType.matches(state)) {
+                    byStateId[Block.getId(state)] = oreType;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the matcher for a set of ore types
+     */
+    public static OreMatcher of(List<OreType> targetOres) {
+        return CACHE.computeIfAbsent(maskOf(targetOres), OreMatcher::build);
+    }
+
+    /**
+     * Get the matcher for a single ore type
+     */
+    public static OreMatcher of(OreType targetOre) {
+        return CACHE.computeIfAbsent(1 << targetOre.ordinal(), OreMatcher::build);
+    }
+
+    /**
+     * Get the matcher for the ore types whose bits are set in the mask
+     */
+    public static OreMatcher ofMask(int mask) {
+        return CACHE.computeIfAbsent(mask, OreMatcher::build);
+    }
+
+    /**
+     * Get the matcher for every ore type
+     */
+    public static OreMatcher all() {
+        return of(List.of(OreType.values()));
+    }
+
+    /**
+     * Get the matcher for every ore a compass of the given tier detects
+     */
+    public static OreMatcher forTier(int tier) {
+        return of(OreType.getOresForTier(tier));
+    }
+
+    /**
+     * Drop all compiled matchers so they are rebuilt with the current tags
+     */
+    public static void invalidate() {
+        CACHE.clear();
+    }
+
+    private static int maskOf(List<OreType> ores) {
+        int mask = 0;
+        for (OreType oreType : ores) {
+            mask |= 1 << oreType.ordinal();
+        }
+        return mask;
+    }
+
+    private static OreMatcher build(int mask) {
+        List<OreType> ores = new ArrayList<>();
+        for (OreType oreType : OreType.values()) {
+            if ((mask & (1 << oreType.ordinal())) != 0) {
+                ores.add(oreType);
+            }
+        }
+        return new OreMatcher(List.copyOf(ores));
+    }
+
+    /**
+     * Get the ore types this matcher detects, in declaration order
+     */
+    public List<OreType> getOres() {
+        return ores;
+    }
+
+    /**
+     * Get a bit mask of this matcher's ores, one bit per ordinal, usable as a key for the ore set
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    /**
+     * Get the matcher for only those of this matcher's ores whose bits are set in the mask
+     */
+    public OreMatcher retain(int retainedMask) {
+        int retained = mask & retainedMask;
+        return retained == mask ? this : ofMask(retained);
+    }
+
+    /**
+     * Check if the ore type is one of this matcher's ores
+     */
+    public boolean includes(OreType oreType) {
+        return (mask & (1 << oreType.ordinal())) != 0;
+    }
+
+    /**
+     * Get the best (lowest) priority among this matcher's ores, or Integer.MAX_VALUE if it has none
+     */
+    public int getBestPriority() {
+        List<OreMatcher> groups = getPriorityGroups();
+        return groups.isEmpty() ? Integer.MAX_VALUE : groups.get(0).getOres().get(0).getPriority();
+    }
+
+    /**
+     * Get one matcher per distinct priority among this matcher's ores, best priority first
+     */
+    public List<OreMatcher> getPriorityGroups() {
+        List<OreMatcher> groups = priorityGroups;
+        if (groups == null) {
+            List<OreType> sorted = new ArrayList<>(ores);
+            sorted.sort(Comparator.comparingInt(OreType::getPriority));
+
+            List<OreMatcher> built = new ArrayList<>();
+            int start = 0;
+            for (int i = 1; i <= sorted.size(); i++) {
+                if (i == sorted.size() || sorted.get(i).getPriority() != sorted.get(start).getPriority()) {
+                    built.add(of(sorted.subList(start, i)));
+                    start = i;
+                }
+            }
+            groups = List.copyOf(built);
+            priorityGroups = groups;
+        }
+        return groups;
+    }
+
+    /**
+     * Get the ore type of a block state, or null if it is not one of the target ores
+     */
+    @Nullable
+    public OreType match(BlockState state) {
+        int id = Block.getId(state);
+        return id >= 0 && id < byStateId.length ? byStateId[id] : null;
+    }
+
+    public boolean matches(BlockState state) {
+        return match(state) != null;
+    }
+}
@@ -0,0 +1,27 @@
+package com.orecompass;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one ore scan, so compass cost can be seen next to the rest of the server in a flight recording
+ */
+@Name("com.orecompass.OreScan")
+@Label("Ore Scan")
+@Category({"Ore Compass"})
+@Description("One scan for ores by an Ore Compass")
+public class OreScanEvent extends jdk.jfr.Event {
+    @Label("Kind")
+    public String kind;
+
+    @Label("Sections Visited")
+    public int sections;
+
+    @Label("Blocks Read")
+    public long blocks;
+
+    @Label("Ore Found")
+    public boolean found;
+}
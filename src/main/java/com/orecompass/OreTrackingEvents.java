@@ -0,0 +1,111 @@
+package com.orecompass;
+
+import net.minecraft.world.level.Level;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.event.TagsUpdatedEvent;
+import net.neoforged.neoforge.event.level.BlockEvent;
+import net.neoforged.neoforge.event.level.ChunkDataEvent;
+import net.neoforged.neoforge.event.level.ChunkEvent;
+import net.neoforged.neoforge.event.level.LevelEvent;
+import net.neoforged.neoforge.event.tick.ServerTickEvent;
+
+/**
+ * Keeps the {@link OreIndex}, {@link SectionScanCache}, {@link TargetRegistry}, {@link OreGenerationProfile}s and {@link OreMatcher}s in sync with the world and its data.
+ * Breaking, placing, exploding and piston moves all go through a block update that notifies
+ * neighbors, so the neighbor notify event sees every one of them with the new block state.
+ * Blocks set without notifying neighbors, as some structure placement and other mods do, are not seen here.
+ * The index and cache catch up with those when a compass finds its target missing, or when the chunk loads again.
+ * Chunks are indexed when a scan first reads them, not when they load, so servers where nobody holds a compass pay nothing.
+ */
+@EventBusSubscriber(modid = OreCompass.MODID)
+public class OreTrackingEvents {
+
+    @SubscribeEvent
+    static void onServerTick(ServerTickEvent.Pre event) {
+        Config.applyChanges();
+    }
+
+    @SubscribeEvent
+    static void onChunkRead(ChunkDataEvent.Load event) {
+        if (event.getLevel() instanceof Level level) {
+            OreIndex index = OreIndex.get(level);
+            if (index != null) {
+                index.readChunk(event.getChunk().getPos(), event.getData());
+            }
+        }
+    }
+
+    @SubscribeEvent
+    static void onChunkSave(ChunkDataEvent.Save event) {
+        if (event.getLevel() instanceof Level level) {
+            OreIndex index = OreIndex.get(level);
+            if (index != null) {
+                index.writeChunk(event.getChunk().getPos(), event.getData());
+            }
+        }
+    }
+
+    @SubscribeEvent
+    static void onChunkUnload(ChunkEvent.Unload event) {
+        if (!(event.getLevel() instanceof Level level)) {
+            return;
+        }
+        OreIndex index = OreIndex.get(level);
+        if (index != null) {
+            index.onChunkUnloading(event.getChunk().getPos());
+        }
+
+        // Blocks of unloaded chunks cannot change, so what is known about them stays right until they load again
+        if (!Config.keepOreDataForUnloadedChunks) {
+            if (index != null) {
+                index.unloadChunk(event.getChunk().getPos());
+            }
+            SectionScanCache cache = SectionScanCache.get(level);
+            if (cache != null) {
+                cache.unloadChunk(event.getChunk().getPos());
+            }
+        }
+    }
+
+    // A cancelled notify only stops the neighbor updates; the block has changed all the same
+    @SubscribeEvent(receiveCanceled = true)
+    static void onBlockChanged(BlockEvent.NeighborNotifyEvent event) {
+        if (event.getLevel() instanceof Level level) {
+            OreIndex index = OreIndex.get(level);
+            if (index != null) {
+                index.onBlockChanged(event.getPos(), event.getState());
+            }
+            SectionScanCache cache = SectionScanCache.get(level);
+            if (cache != null) {
+                cache.invalidate(event.getPos());
+            }
+            // Compasses are tracked on the server only, and the client level of a single player game shares its dimension
+            if (!level.isClientSide) {
+                TargetRegistry.onBlockChanged(level, event.getPos());
+            }
+        }
+    }
+
+    @SubscribeEvent
+    static void onTagsUpdated(TagsUpdatedEvent event) {
+        OreMatcher.invalidate();
+
+        // The index and cached results were built with the old ore tags, so let them be rebuilt as chunks are queried again
+        if (event.getUpdateCause() == TagsUpdatedEvent.UpdateCause.SERVER_DATA_LOAD) {
+            OreIndex.clear();
+            SectionScanCache.clear();
+            OreGenerationProfile.clear();
+        }
+    }
+
+    @SubscribeEvent
+    static void onLevelUnload(LevelEvent.Unload event) {
+        if (event.getLevel() instanceof Level level && !level.isClientSide) {
+            OreIndex.remove(level);
+            SectionScanCache.remove(level);
+            OreGenerationProfile.remove(level);
+            TargetRegistry.remove(level);
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package com.orecompass;
 
+import net.minecraft.tags.TagKey;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.neoforged.neoforge.common.Tags;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Enum representing different ore types that can be detected by the Ore Compass
@@ -12,32 +18,55 @@ import java.util.List;
  */
 public enum OreType {
     // Tier 1 - Basic ores
-    COAL("coal", 1, 8, 0x2D2D2D, Blocks.COAL_ORE, Blocks.DEEPSLATE_COAL_ORE),
-    IRON("iron", 1, 6, 0xD8AF93, Blocks.IRON_ORE, Blocks.DEEPSLATE_IRON_ORE),
-    COPPER("copper", 1, 10, 0xE07C4A, Blocks.COPPER_ORE, Blocks.DEEPSLATE_COPPER_ORE),
+    COAL("coal", 1, 8, 0x2D2D2D, Tags.Blocks.ORES_COAL, Blocks.COAL_ORE, Blocks.DEEPSLATE_COAL_ORE),
+    IRON("iron", 1, 6, 0xD8AF93, Tags.Blocks.ORES_IRON, Blocks.IRON_ORE, Blocks.DEEPSLATE_IRON_ORE),
+    COPPER("copper", 1, 10, 0xE07C4A, Tags.Blocks.ORES_COPPER, Blocks.COPPER_ORE, Blocks.DEEPSLATE_COPPER_ORE),
 
     // Tier 2 - Advanced ores
-    GOLD("gold", 2, 5, 0xFCDB4A, Blocks.GOLD_ORE, Blocks.DEEPSLATE_GOLD_ORE, Blocks.NETHER_GOLD_ORE),
-    DIAMOND("diamond", 2, 2, 0x4AEDD9, Blocks.DIAMOND_ORE, Blocks.DEEPSLATE_DIAMOND_ORE),
-    LAPIS("lapis", 2, 7, 0x1E4B9E, Blocks.LAPIS_ORE, Blocks.DEEPSLATE_LAPIS_ORE),
-    REDSTONE("redstone", 2, 9, 0xAA0000, Blocks.REDSTONE_ORE, Blocks.DEEPSLATE_REDSTONE_ORE),
-    EMERALD("emerald", 2, 4, 0x17DD62, Blocks.EMERALD_ORE, Blocks.DEEPSLATE_EMERALD_ORE),
+    GOLD("gold", 2, 5, 0xFCDB4A, Tags.Blocks.ORES_GOLD, Blocks.GOLD_ORE, Blocks.DEEPSLATE_GOLD_ORE, Blocks.NETHER_GOLD_ORE),
+    DIAMOND("diamond", 2, 2, 0x4AEDD9, Tags.Blocks.ORES_DIAMOND, Blocks.DIAMOND_ORE, Blocks.DEEPSLATE_DIAMOND_ORE),
+    LAPIS("lapis", 2, 7, 0x1E4B9E, Tags.Blocks.ORES_LAPIS, Blocks.LAPIS_ORE, Blocks.DEEPSLATE_LAPIS_ORE),
+    REDSTONE("redstone", 2, 9, 0xAA0000, Tags.Blocks.ORES_REDSTONE, Blocks.REDSTONE_ORE, Blocks.DEEPSLATE_REDSTONE_ORE),
+    EMERALD("emerald", 2, 4, 0x17DD62, Tags.Blocks.ORES_EMERALD, Blocks.EMERALD_ORE, Blocks.DEEPSLATE_EMERALD_ORE),
 
     // Tier 3 - Master ores
-    ANCIENT_DEBRIS("ancient_debris", 3, 1, 0x6B4226, Blocks.ANCIENT_DEBRIS),
-    NETHER_QUARTZ("nether_quartz", 3, 3, 0xE3DDD4, Blocks.NETHER_QUARTZ_ORE);
+    ANCIENT_DEBRIS("ancient_debris", 3, 1, 0x6B4226, Tags.Blocks.ORES_NETHERITE_SCRAP, Blocks.ANCIENT_DEBRIS),
+    NETHER_QUARTZ("nether_quartz", 3, 3, 0xE3DDD4, Tags.Blocks.ORES_QUARTZ, Blocks.NETHER_QUARTZ_ORE);
+
+    private static final Map<String, OreType> BY_NAME = new HashMap<>();
+    private static final List<List<OreType>> BY_TIER;
+
+    static {
+        int maxTier = 0;
+        for (OreType ore : values()) {
+            BY_NAME.put(ore.getName(), ore);
+            maxTier = Math.max(maxTier, ore.getTier());
+        }
+
+        // Index 0 is unused so a tier can be used directly as the index
+        List<List<OreType>> byTier = new ArrayList<>();
+        for (int tier = 0; tier <= maxTier; tier++) {
+            int maxOreTier = tier;
+            byTier.add(Arrays.stream(values())
+                    .filter(ore -> ore.getTier() <= maxOreTier)
+                    .toList());
+        }
+        BY_TIER = List.copyOf(byTier);
+    }
 
     private final String name;
     private final int tier;
     private final int priority; // Lower = higher priority
     private final int color; // RGB color for needle tinting
+    private final TagKey<Block> tag; // Common ore tag, so modded ores are detected too
     private final List<Block> blocks;
 
-    OreType(String name, int tier, int priority, int color, Block... blocks) {
+    OreType(String name, int tier, int priority, int color, TagKey<Block> tag, Block... blocks) {
         this.name = name;
         this.tier = tier;
         this.priority = priority;
         this.color = color;
+        this.tag = tag;
         this.blocks = Arrays.asList(blocks);
     }
 
@@ -57,6 +86,10 @@ public enum OreType {
         return color;
     }
 
+    public TagKey<Block> getTag() {
+        return tag;
+    }
+
     public List<Block> getBlocks() {
         return blocks;
     }
@@ -69,28 +102,24 @@ public enum OreType {
     }
 
     /**
-     * Check if a block is one of the ore blocks for this type
+     * Check if a block state is one of the ore blocks for this type, or is in its common ore tag.
+     * This is slow; scanning code should go through an {@link OreMatcher} instead.
      */
-    public boolean matches(Block block) {
-        return blocks.contains(block);
+    public boolean matches(BlockState state) {
+        return blocks.contains(state.getBlock()) || state.is(tag);
     }
 
     /**
      * Get all ores available for a specific tier
      */
     public static List<OreType> getOresForTier(int tier) {
-        return Arrays.stream(values())
-                .filter(ore -> ore.getTier() <= tier)
-                .toList();
+        return BY_TIER.get(Math.max(0, Math.min(tier, BY_TIER.size() - 1)));
     }
 
     /**
      * Get ore type by name
      */
     public static OreType fromName(String name) {
-        return Arrays.stream(values())
-                .filter(ore -> ore.getName().equals(name))
-                .findFirst()
-                .orElse(null);
+        return BY_NAME.get(name);
     }
 }
@@ -0,0 +1,162 @@
+package com.orecompass;
+
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits very large scans by chunk section across a pool of worker threads.
+ * Each part collects its own {@link ScanResult}, and parts are merged by the same rules a single pass uses,
+ * so the result does not depend on how the scan was split. Only sources that are safe to read from
+ * several threads at once, like a {@link SectionSnapshot}, may be scanned this way.
+ * Scans that read an {@link OreIndex} are never split: the index can only be read on the server thread,
+ * and the {@link ScanScheduler} already spreads those scans over several ticks.
+ * So long range scans only come here with scanMode ASYNC and useOreIndex off, never with the default config.
+ */
+@EventBusSubscriber(modid = OreCompass.MODID)
+public class ParallelOreScanner {
+    // Sections one task scans by itself rather than splitting further
+    private static final int SECTIONS_PER_TASK = 64;
+
+    @Nullable
+    private static ForkJoinPool pool;
+
+    /**
+     * Check if a scan of the bounds is large enough to be worth splitting
+     */
+    public static boolean shouldSplit(BoundingBox bounds) {
+        // Scans that stop at the first ore found are not split, since the parts could not stop each other
+        if (Config.parallelScanSections <= 0 || Config.scanResultHits <= 0) {
+            return false;
+        }
+        long sections = (long) sectionSpan(bounds.minX(), bounds.maxX())
+                * sectionSpan(bounds.minY(), bounds.maxY())
+                * sectionSpan(bounds.minZ(), bounds.maxZ());
+        return sections >= Config.parallelScanSections;
+    }
+
+    private static int sectionSpan(int min, int max) {
+        return (max >> 4) - (min >> 4) + 1;
+    }
+
+    /**
+     * Scan the shape like {@link OreDetector#scan}, splitting the work across the pool. Blocks until done.
+     */
+    public static ScanResult scan(OreDetector.OreSource source, ScanShape shape, BoundingBox bounds, OreMatcher matcher) {
+        return scan(source, shape, bounds, matcher, SECTIONS_PER_TASK);
+    }
+
+    static ScanResult scan(OreDetector.OreSource source, ScanShape shape, BoundingBox bounds, OreMatcher matcher, int sectionsPerTask) {
+        ScanMetrics.Scan scan = ScanMetrics.startScan(ScanMetrics.ScanKind.FULL);
+        List<OreDetector.SectionEntry> sections = matcher.getOres().isEmpty()
+                ? List.of()
+                : OreDetector.getSectionsByDistance(shape, bounds);
+        Part part = getPool().invoke(new ScanTask(source, shape, bounds, matcher, sections, sectionsPerTask, 0, sections.size()));
+        scan.sections(part.sections, part.blocks);
+        scan.finish(part.builder.hasHits());
+        return part.builder.build();
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(getThreadCount(), forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("Ore Compass Scan Worker #" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    private static int getThreadCount() {
+        // Leave a core for the server thread and one for everything else the server runs
+        return Config.parallelScanThreads > 0
+                ? Config.parallelScanThreads
+                : Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+    }
+
+    /**
+     * Replace the pool if the configured thread count changed, since the pool is sized when it is created.
+     * Runs on the server thread.
+     */
+    static synchronized void resize() {
+        if (pool != null && pool.getParallelism() != getThreadCount()) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Drop the pool so the next scan creates a new one.
+     * The old pool is only shut down once the scans already submitted are done, so none of them finds it closed.
+     */
+    static synchronized void shutdown() {
+        if (pool != null) {
+            AsyncOreScanner.afterRunningScans(pool::shutdown);
+            pool = null;
+        }
+    }
+
+    @SubscribeEvent
+    static void onServerStopped(ServerStoppedEvent event) {
+        shutdown();
+    }
+
+    /**
+     * What one part of a scan collected
+     */
+    private record Part(ScanResult.Builder builder, int sections, long blocks) {
+    }
+
+    private static class ScanTask extends RecursiveTask<Part> {
+        private final OreDetector.OreSource source;
+        private final ScanShape shape;
+        private final BoundingBox bounds;
+        private final OreMatcher matcher;
+        private final List<OreDetector.SectionEntry> sections;
+        private final int sectionsPerTask;
+        private final int from;
+        private final int to;
+
+        private ScanTask(OreDetector.OreSource source, ScanShape shape, BoundingBox bounds, OreMatcher matcher,
+                         List<OreDetector.SectionEntry> sections, int sectionsPerTask, int from, int to) {
+            this.source = source;
+            this.shape = shape;
+            this.bounds = bounds;
+            this.matcher = matcher;
+            this.sections = sections;
+            this.sectionsPerTask = sectionsPerTask;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Part compute() {
+            if (to - from > sectionsPerTask) {
+                int middle = (from + to) >>> 1;
+                ScanTask second = new ScanTask(source, shape, bounds, matcher, sections, sectionsPerTask, middle, to);
+                second.fork();
+                Part first = new ScanTask(source, shape, bounds, matcher, sections, sectionsPerTask, from, middle).compute();
+                Part rest = second.join();
+                first.builder.merge(rest.builder);
+                return new Part(first.builder, first.sections + rest.sections, first.blocks + rest.blocks);
+            }
+
+            ScanResult.Builder builder = ScanResult.builder(shape.center(), matcher, Config.scanResultHits);
+            OreDetector.OreVisitor visitor = shape.filter(builder);
+            long blocks = 0;
+            for (int i = from; i < to; i++) {
+                OreDetector.SectionEntry section = sections.get(i);
+                blocks += source.visitSection(section.x(), section.y(), section.z(), bounds, matcher, visitor);
+            }
+            return new Part(builder, to - from, blocks);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.orecompass;
+
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A resumable scan collecting the {@link ScanResult} of the volume around a point.
+ * Each call to {@link #advance} does at most about a given amount of work, so a large scan is spread
+ * over many ticks as a fixed slice of each one instead of a single spike.
+ * Work is counted in sections visited, blocks read and ores reported, so index lookups, which read no blocks, are charged too,
+ * and a section the index reads the first time the scan reaches it is charged for its blocks.
+ */
+public class ScanCursor {
+    private final ResourceKey<Level> dimension;
+    private final ScanShape shape;
+    @Nullable
+    private final BoundingBox bounds;
+    private final OreMatcher matcher;
+    private final List<OreDetector.SectionEntry> sections;
+    private final ScanResult.Builder builder;
+    private final OreDetector.OreVisitor visitor;
+    private int nextSection;
+    private int reported;
+
+    private ScanCursor(ResourceKey<Level> dimension, ScanShape shape, @Nullable BoundingBox bounds, OreMatcher matcher) {
+        this.dimension = dimension;
+        this.shape = shape;
+        this.bounds = bounds;
+        this.matcher = matcher;
+        this.sections = bounds != null ? OreDetector.getSectionsByDistance(shape, bounds) : List.of();
+        this.builder = ScanResult.builder(shape.center(), matcher, Config.scanResultHits);
+        OreDetector.OreVisitor filtered = shape.filter(builder);
+        this.visitor = (oreType, x, y, z) -> {
+            reported++;
+            filtered.visit(oreType, x, y, z);
+        };
+    }
+
+    /**
+     * Start a new scan of the shape. No blocks are read until the cursor is advanced.
+     */
+    public static ScanCursor start(Level level, ScanShape shape, OreMatcher matcher) {
+        return new ScanCursor(level.dimension(), shape, OreDetector.getScanBounds(level, shape, matcher), matcher);
+    }
+
+    public ResourceKey<Level> getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Check if this scan was started in the given level
+     */
+    public boolean isFor(Level level) {
+        return dimension == level.dimension();
+    }
+
+    /**
+     * Scan sections until about the given amount of work was done.
+     * A section is never split, so a step can overshoot the budget by at most one section.
+     *
+     * @return The part of the budget used up
+     */
+    public int advance(Level level, int blockBudget) {
+        if (isDone()) {
+            return 0;
+        }
+
+        ScanMetrics.Scan scan = ScanMetrics.startScan(ScanMetrics.ScanKind.SWEEP_STEP);
+        OreDetector.OreSource source = OreDetector.sourceFor(level);
+        int used = 0;
+
+        // Every section is visited, since the result also counts the ores of the whole volume
+        while (nextSection < sections.size() && used < blockBudget) {
+            OreDetector.SectionEntry section = sections.get(nextSection);
+
+            // Count every section visited, so sections skipped by the palette also use up the budget,
+            // and every ore reported, which is all the work an index lookup does
+            int reportedBefore = reported;
+            int sectionReads = source.visitSection(section.x(), section.y(), section.z(), bounds, matcher, visitor);
+            scan.section(sectionReads);
+            used += 1 + sectionReads + (reported - reportedBefore);
+            nextSection++;
+        }
+
+        scan.finish(builder.hasHits());
+        return used;
+    }
+
+    public ScanShape getShape() {
+        return shape;
+    }
+
+    /**
+     * Get the volume being scanned, or null if none of it is inside the world
+     */
+    @Nullable
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    public boolean isDone() {
+        return nextSection >= sections.size();
+    }
+
+    /**
+     * Get what the scan found so far; final once the scan is done
+     */
+    public ScanResult getResult() {
+        return builder.build();
+    }
+}
@@ -0,0 +1,333 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import jdk.jfr.EventType;
+import net.minecraft.world.entity.player.Player;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+import net.neoforged.neoforge.event.tick.ServerTickEvent;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of the work done for compasses, shown by {@code /orecompass stats}.
+ * Scans also run on the scanner thread, so everything scans record is thread-safe;
+ * compass updates are only recorded on the server thread.
+ */
+@EventBusSubscriber(modid = OreCompass.MODID)
+public class ScanMetrics {
+    private static final int TIMING_SAMPLES = 1024;
+
+    private static final LongAdder SCANS = new LongAdder();
+    private static final LongAdder SCANS_THIS_TICK = new LongAdder();
+    private static final LongAdder SECTIONS = new LongAdder();
+    private static final LongAdder BLOCKS = new LongAdder();
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
+    private static final LongAdder TARGET_CHECKS = new LongAdder();
+    private static final LongAdder INDEXED_SECTIONS = new LongAdder();
+    private static final LongAdder RESTORED_SECTIONS = new LongAdder();
+    private static final Timings SCAN_TIMES = new Timings(TIMING_SAMPLES);
+    private static final Timings UPDATE_TIMES = new Timings(TIMING_SAMPLES);
+    // Scan events are only created while a recording has them enabled
+    private static final EventType SCAN_EVENT_TYPE = EventType.getEventType(OreScanEvent.class);
+
+    // Server thread only
+    private static final Map<UUID, Totals> PLAYER_TOTALS = new HashMap<>();
+    private static final Int2ObjectMap<Totals> TIER_TOTALS = new Int2ObjectOpenHashMap<>();
+    private static long ticks;
+    private static long maxScansPerTick;
+
+    public enum ScanKind {
+        NEAREST,
+        FULL,
+        COUNT,
+        SWEEP_STEP
+    }
+
+    /**
+     * Start timing a scan; report what it reads to the returned scan and finish it when done
+     */
+    public static Scan startScan(ScanKind kind) {
+        return new Scan(kind);
+    }
+
+    public static void recordCacheHit() {
+        CACHE_HITS.increment();
+    }
+
+    public static void recordCacheMiss() {
+        CACHE_MISSES.increment();
+    }
+
+    /**
+     * Record that a compass read its target back from the world
+     */
+    public static void recordTargetCheck() {
+        TARGET_CHECKS.increment();
+    }
+
+    /**
+     * Record that a scan indexed a chunk section, either from its saved ores or by reading it.
+     * The blocks read are counted by the scan itself.
+     */
+    public static void recordIndexedSection(boolean restored) {
+        INDEXED_SECTIONS.increment();
+        if (restored) {
+            RESTORED_SECTIONS.increment();
+        }
+    }
+
+    /**
+     * Record the server thread time of one compass update
+     */
+    public static void recordUpdate(Player player, int tier, long nanos) {
+        UPDATE_TIMES.add(nanos);
+
+        Totals playerTotals = PLAYER_TOTALS.get(player.getUUID());
+        if (playerTotals == null) {
+            playerTotals = new Totals(player.getGameProfile().getName());
+            PLAYER_TOTALS.put(player.getUUID(), playerTotals);
+        }
+        playerTotals.add(nanos);
+
+        Totals tierTotals = TIER_TOTALS.get(tier);
+        if (tierTotals == null) {
+            tierTotals = new Totals("Tier " + tier);
+            TIER_TOTALS.put(tier, tierTotals);
+        }
+        tierTotals.add(nanos);
+    }
+
+    public static long getTicks() {
+        return ticks;
+    }
+
+    public static long getScans() {
+        return SCANS.sum();
+    }
+
+    public static long getMaxScansPerTick() {
+        return maxScansPerTick;
+    }
+
+    public static long getSections() {
+        return SECTIONS.sum();
+    }
+
+    public static long getBlocks() {
+        return BLOCKS.sum();
+    }
+
+    public static long getCacheHits() {
+        return CACHE_HITS.sum();
+    }
+
+    public static long getCacheMisses() {
+        return CACHE_MISSES.sum();
+    }
+
+    public static long getTargetChecks() {
+        return TARGET_CHECKS.sum();
+    }
+
+    public static long getIndexedSections() {
+        return INDEXED_SECTIONS.sum();
+    }
+
+    public static long getRestoredSections() {
+        return RESTORED_SECTIONS.sum();
+    }
+
+    /**
+     * Get percentiles of the recent scan times in nanoseconds, in the order asked for
+     */
+    public static long[] getScanTimes(double... percentiles) {
+        return SCAN_TIMES.percentiles(percentiles);
+    }
+
+    /**
+     * Get percentiles of the recent compass update times in nanoseconds, in the order asked for
+     */
+    public static long[] getUpdateTimes(double... percentiles) {
+        return UPDATE_TIMES.percentiles(percentiles);
+    }
+
+    public static Iterable<Totals> getPlayerTotals() {
+        return PLAYER_TOTALS.values();
+    }
+
+    public static Iterable<Totals> getTierTotals() {
+        return TIER_TOTALS.values();
+    }
+
+    public static void reset() {
+        SCANS.reset();
+        SCANS_THIS_TICK.reset();
+        SECTIONS.reset();
+        BLOCKS.reset();
+        CACHE_HITS.reset();
+        CACHE_MISSES.reset();
+        TARGET_CHECKS.reset();
+        INDEXED_SECTIONS.reset();
+        RESTORED_SECTIONS.reset();
+        SCAN_TIMES.clear();
+        UPDATE_TIMES.clear();
+        PLAYER_TOTALS.clear();
+        TIER_TOTALS.clear();
+        ticks = 0;
+        maxScansPerTick = 0;
+    }
+
+    @SubscribeEvent
+    static void onServerTick(ServerTickEvent.Post event) {
+        ticks++;
+        maxScansPerTick = Math.max(maxScansPerTick, SCANS_THIS_TICK.sumThenReset());
+    }
+
+    @SubscribeEvent
+    static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        PLAYER_TOTALS.remove(event.getEntity().getUUID());
+    }
+
+    @SubscribeEvent
+    static void onServerStopped(ServerStoppedEvent event) {
+        reset();
+    }
+
+    /**
+     * One running scan, counting what it reads
+     */
+    public static class Scan {
+        private final ScanKind kind;
+        @Nullable
+        private final OreScanEvent event;
+        private final long startTime;
+        private int sections;
+        private long blocks;
+
+        private Scan(ScanKind kind) {
+            this.kind = kind;
+            this.event = SCAN_EVENT_TYPE.isEnabled() ? new OreScanEvent() : null;
+            if (event != null) {
+                event.begin();
+            }
+            this.startTime = System.nanoTime();
+        }
+
+        /**
+         * Count a visited section and the number of blocks read from it
+         */
+        public void section(int blocksRead) {
+            sections++;
+            blocks += blocksRead;
+        }
+
+        /**
+         * Count several visited sections and the blocks read from them, such as those of a part scanned on another thread
+         */
+        public void sections(int count, long blocksRead) {
+            sections += count;
+            blocks += blocksRead;
+        }
+
+        public void finish(boolean found) {
+            long nanos = System.nanoTime() - startTime;
+            SCANS.increment();
+            SCANS_THIS_TICK.increment();
+            SECTIONS.add(sections);
+            BLOCKS.add(blocks);
+            SCAN_TIMES.add(nanos);
+
+            if (event == null) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.kind = kind.name();
+                event.sections = sections;
+                event.blocks = blocks;
+                event.found = found;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Update count and time spent for one player or tier
+     */
+    public static class Totals {
+        private final String name;
+        private long updates;
+        private long nanos;
+
+        private Totals(String name) {
+            this.name = name;
+        }
+
+        private void add(long nanos) {
+            this.updates++;
+            this.nanos += nanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getUpdates() {
+            return updates;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * The most recent durations, kept in a ring
+     */
+    private static class Timings {
+        private final long[] samples;
+        private int next;
+        private int count;
+
+        private Timings(int size) {
+            this.samples = new long[size];
+        }
+
+        private synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        private synchronized void clear() {
+            next = 0;
+            count = 0;
+        }
+
+        private long[] percentiles(double... percentiles) {
+            long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+
+            long[] values = new long[percentiles.length];
+            for (int i = 0; i < percentiles.length; i++) {
+                // Nearest-rank percentile
+                int rank = (int) Math.ceil(percentiles[i] * sorted.length);
+                values[i] = sorted.length == 0 ? 0 : sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one pass over a volume found: the nearest few ores of each type and how many of each there are.
+ * A compass keeps this from its last full scan, so it can fall back to the next ore when its target is mined,
+ * or answer for a narrower set of ores after retuning, without scanning again.
+ */
+public class ScanResult {
+    private static final OreType[] ORE_TYPES = OreType.values();
+
+    private final BlockPos center;
+    private final OreMatcher matcher;
+    private final LongArrayList[] hits = new LongArrayList[ORE_TYPES.length];
+    private final int[] counts = new int[ORE_TYPES.length];
+    // Ores with more hits in the volume than were kept; once their kept hits run out, only a rescan can tell where the rest are
+    private final boolean[] truncated = new boolean[ORE_TYPES.length];
+    private final int maxHits;
+
+    private ScanResult(BlockPos center, OreMatcher matcher, int maxHits) {
+        this.center = center;
+        this.matcher = matcher;
+        this.maxHits = maxHits;
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new LongArrayList(0);
+        }
+    }
+
+    /**
+     * Get the scan center the hits were chosen by
+     */
+    public BlockPos getCenter() {
+        return center;
+    }
+
+    /**
+     * Check if the scan looked for every ore of the matcher
+     */
+    public boolean covers(OreMatcher other) {
+        return (matcher.getMask() & other.getMask()) == other.getMask();
+    }
+
+    /**
+     * Get how many ores of the type the scan found, less the ones since found mined
+     */
+    public int getCount(OreType oreType) {
+        return counts[oreType.ordinal()];
+    }
+
+    public int getTotalCount() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Get the kept hits of an ore type, nearest to the scan center first
+     */
+    public List<BlockPos> getHits(OreType oreType) {
+        LongArrayList positions = hits[oreType.ordinal()];
+        List<BlockPos> list = new ArrayList<>(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            list.add(BlockPos.of(positions.getLong(i)));
+        }
+        return list;
+    }
+
+    /**
+     * Forget an ore that is no longer there
+     */
+    public void remove(BlockPos pos) {
+        long packedPos = pos.asLong();
+        for (int i = 0; i < hits.length; i++) {
+            if (hits[i].rem(packedPos)) {
+                counts[i] = Math.max(0, counts[i] - 1);
+            }
+        }
+    }
+
+    /**
+     * Add an ore found later, such as the best ore of a newly exposed slab.
+     * Counts only cover the scanned volume, so they are left alone.
+     */
+    public void offer(OreDetector.OreHit hit) {
+        LongArrayList positions = hits[hit.oreType().ordinal()];
+        long packedPos = hit.pos().asLong();
+        // Slabs add at most one hit per update until the next full scan replaces this result
+        if (positions.size() < maxHits * 2 && !positions.contains(packedPos)) {
+            positions.add(packedPos);
+        }
+    }
+
+    /**
+     * Check if the kept hits are enough to pick the matcher's best ore inside the bounds.
+     * They are not once every kept hit of an ore that had more was removed or left the bounds,
+     * unless a better priority still has a hit.
+     */
+    public boolean canPick(BoundingBox bounds, OreMatcher other) {
+        if (!covers(other)) {
+            return false;
+        }
+        for (OreMatcher priorityGroup : other.getPriorityGroups()) {
+            boolean found = false;
+            for (OreType oreType : priorityGroup.getOres()) {
+                if (hasHitInside(oreType, bounds)) {
+                    found = true;
+                } else if (truncated[oreType.ordinal()]) {
+                    return false;
+                }
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pick the highest priority, then nearest to the given center, kept hit inside the bounds.
+     * Only meaningful if {@link #canPick} holds.
+     *
+     * @return The best hit, or null if the matcher's ores have none left inside the bounds
+     */
+    @Nullable
+    public OreDetector.OreHit pick(BlockPos from, BoundingBox bounds, OreMatcher other) {
+        for (OreMatcher priorityGroup : other.getPriorityGroups()) {
+            long bestPos = 0L;
+            OreType bestOre = null;
+            double bestDistance = Double.MAX_VALUE;
+
+            for (OreType oreType : priorityGroup.getOres()) {
+                LongArrayList positions = hits[oreType.ordinal()];
+                for (int i = 0; i < positions.size(); i++) {
+                    long packedPos = positions.getLong(i);
+                    int x = BlockPos.getX(packedPos);
+                    int y = BlockPos.getY(packedPos);
+                    int z = BlockPos.getZ(packedPos);
+                    double distance = from.distToLowCornerSqr(x, y, z);
+                    if (bounds.isInside(x, y, z) && distance < bestDistance) {
+                        bestPos = packedPos;
+                        bestOre = oreType;
+                        bestDistance = distance;
+                    }
+                }
+            }
+
+            if (bestOre != null) {
+                return new OreDetector.OreHit(BlockPos.of(bestPos), bestOre);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a copy that can be changed without changing this result
+     */
+    public ScanResult copy() {
+        ScanResult copy = new ScanResult(center, matcher, maxHits);
+        for (int i = 0; i < hits.length; i++) {
+            copy.hits[i].addAll(hits[i]);
+        }
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        System.arraycopy(truncated, 0, copy.truncated, 0, truncated.length);
+        return copy;
+    }
+
+    private boolean hasHitInside(OreType oreType, BoundingBox bounds) {
+        LongArrayList positions = hits[oreType.ordinal()];
+        for (int i = 0; i < positions.size(); i++) {
+            long packedPos = positions.getLong(i);
+            if (bounds.isInside(BlockPos.getX(packedPos), BlockPos.getY(packedPos), BlockPos.getZ(packedPos))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get a result that only knows the best ore of a scan that stopped once it found it.
+     * Nothing is known about the other ores of its priority or below, so once the hit is mined only a rescan can pick again,
+     * and the counts only cover the hit.
+     *
+     * @param hit The best ore of the matcher in the scanned volume, or null if it has none
+     */
+    public static ScanResult of(BlockPos center, OreMatcher matcher, @Nullable OreDetector.OreHit hit) {
+        ScanResult result = new ScanResult(center, matcher, 1);
+        if (hit == null) {
+            return result;
+        }
+        result.hits[hit.oreType().ordinal()].add(hit.pos().asLong());
+        result.counts[hit.oreType().ordinal()] = 1;
+        // Better priorities were searched all the way and had nothing
+        for (OreType oreType : matcher.getOres()) {
+            if (oreType.getPriority() >= hit.oreType().getPriority()) {
+                result.truncated[oreType.ordinal()] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start collecting a result that keeps the given number of nearest hits per ore type
+     */
+    public static Builder builder(BlockPos center, OreMatcher matcher, int maxHits) {
+        return new Builder(new ScanResult(center, matcher, Math.max(1, maxHits)));
+    }
+
+    /**
+     * Collects every ore a scan reports, keeping only the nearest hits of each type
+     */
+    public static class Builder implements OreDetector.OreVisitor {
+        private final ScanResult result;
+        // Distances of the kept hits, in the same order as the hits
+        private final double[][] distances;
+
+        private Builder(ScanResult result) {
+            this.result = result;
+            this.distances = new double[ORE_TYPES.length][result.maxHits];
+        }
+
+        /**
+         * Check if any ore was reported so far
+         */
+        public boolean hasHits() {
+            for (int count : result.counts) {
+                if (count > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void visit(OreType oreType, int x, int y, int z) {
+            int ordinal = oreType.ordinal();
+            result.counts[ordinal]++;
+            keep(ordinal, BlockPos.asLong(x, y, z), result.center.distToLowCornerSqr(x, y, z));
+        }
+
+        /**
+         * Add everything another builder for the same center and ores collected, as if this one had seen it too
+         */
+        public void merge(Builder other) {
+            for (int ordinal = 0; ordinal < ORE_TYPES.length; ordinal++) {
+                result.counts[ordinal] += other.result.counts[ordinal];
+                result.truncated[ordinal] |= other.result.truncated[ordinal];
+                LongArrayList positions = other.result.hits[ordinal];
+                for (int i = 0; i < positions.size(); i++) {
+                    keep(ordinal, positions.getLong(i), other.distances[ordinal][i]);
+                }
+            }
+        }
+
+        private void keep(int ordinal, long packedPos, double distance) {
+            LongArrayList positions = result.hits[ordinal];
+            double[] kept = distances[ordinal];
+            int size = positions.size();
+            if (size == result.maxHits) {
+                result.truncated[ordinal] = true;
+                if (distance >= kept[size - 1]) {
+                    return;
+                }
+                positions.removeLong(--size);
+            }
+
+            // Insertion into a short sorted list
+            int index = size;
+            while (index > 0 && kept[index - 1] > distance) {
+                kept[index] = kept[index - 1];
+                index--;
+            }
+            kept[index] = distance;
+            positions.add(index, packedPos);
+        }
+
+        public ScanResult build() {
+            return result;
+        }
+    }
+}
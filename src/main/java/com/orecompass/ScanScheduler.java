@@ -0,0 +1,99 @@
+package com.orecompass;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.player.Player;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+import net.neoforged.neoforge.event.tick.ServerTickEvent;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Runs INCREMENTAL compass scans, and ASYNC ones that read the ore index, within one budget shared by the whole server.
+ * Players take turns, each advancing one of their scans by a slice of the budget, so under load
+ * every compass slows down a little instead of the tick rate collapsing.
+ */
+@EventBusSubscriber(modid = OreCompass.MODID)
+public class ScanScheduler {
+    private static final Map<UUID, ArrayDeque<CompassTracker>> QUEUES = new HashMap<>();
+    private static final ArrayDeque<UUID> TURNS = new ArrayDeque<>();
+
+    /**
+     * Queue the scan cursor of a player's tracker.
+     * A tracker is queued at most once, so every compass sharing it is served by the same scan.
+     */
+    public static void submit(Player player, CompassTracker tracker) {
+        ArrayDeque<CompassTracker> queue = QUEUES.get(player.getUUID());
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            QUEUES.put(player.getUUID(), queue);
+            TURNS.addLast(player.getUUID());
+        }
+        if (!queue.contains(tracker)) {
+            queue.addLast(tracker);
+        }
+    }
+
+    @SubscribeEvent
+    static void onServerTick(ServerTickEvent.Post event) {
+        MinecraftServer server = event.getServer();
+        int budget = Config.scanTickBudget;
+
+        while (budget > 0 && !TURNS.isEmpty()) {
+            UUID playerId = TURNS.pollFirst();
+            ArrayDeque<CompassTracker> queue = QUEUES.get(playerId);
+            budget -= serve(server, queue, Math.min(budget, Config.scanBlockBudget));
+
+            if (queue.isEmpty()) {
+                QUEUES.remove(playerId);
+            } else {
+                TURNS.addLast(playerId);
+            }
+        }
+    }
+
+    /**
+     * Advance the first unfinished scan of a player's queue by up to the given budget
+     *
+     * @return The part of the budget used up
+     */
+    private static int serve(MinecraftServer server, ArrayDeque<CompassTracker> queue, int budget) {
+        while (!queue.isEmpty()) {
+            CompassTracker tracker = queue.peekFirst();
+            ScanCursor cursor = tracker.getScanCursor();
+            ServerLevel level = cursor != null ? server.getLevel(cursor.getDimension()) : null;
+
+            // Finished scans wait on their tracker until the compass picks them up
+            if (cursor == null || cursor.isDone() || level == null) {
+                queue.pollFirst();
+                continue;
+            }
+
+            int used = cursor.advance(level, budget);
+            if (cursor.isDone()) {
+                queue.pollFirst();
+            }
+            return used;
+        }
+        return 0;
+    }
+
+    @SubscribeEvent
+    static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        UUID playerId = event.getEntity().getUUID();
+        QUEUES.remove(playerId);
+        TURNS.remove(playerId);
+    }
+
+    @SubscribeEvent
+    static void onServerStopped(ServerStoppedEvent event) {
+        QUEUES.clear();
+        TURNS.clear();
+    }
+}
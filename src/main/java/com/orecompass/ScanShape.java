@@ -0,0 +1,186 @@
+package com.orecompass;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+/**
+ * The volume a compass scan looks at. Scans visit only the sections of its box that the shape touches
+ * and only report ores inside it, so a tighter shape reads less of the world.
+ * Shapes are records, so two scans of the same volume compare equal.
+ */
+public interface ScanShape {
+    // Distance from a section's center to its corners
+    double SECTION_RADIUS = 8 * Math.sqrt(3);
+
+    /**
+     * Get the cube of range blocks around the center
+     */
+    static ScanShape cube(BlockPos center, int range) {
+        return new Cube(center, range);
+    }
+
+    /**
+     * Get the ball of range blocks around the center
+     */
+    static ScanShape sphere(BlockPos center, int range) {
+        return new Sphere(center, range);
+    }
+
+    /**
+     * Get the cone reaching length blocks from the apex in the look direction, widening by halfAngle degrees to each side.
+     * The direction is rounded to whole steps of degrees, so small head movements do not make a new volume.
+     */
+    static ScanShape cone(BlockPos apex, float yRot, float xRot, int length, int halfAngle, int stepDegrees) {
+        float yaw = Math.round(yRot / stepDegrees) * stepDegrees * Mth.DEG_TO_RAD;
+        float pitch = Math.round(xRot / stepDegrees) * stepDegrees * Mth.DEG_TO_RAD;
+        // Same as Entity.calculateViewVector
+        double dirX = -Mth.sin(yaw) * Mth.cos(pitch);
+        double dirY = -Mth.sin(pitch);
+        double dirZ = Mth.cos(yaw) * Mth.cos(pitch);
+        double angle = halfAngle * Mth.DEG_TO_RAD;
+        return new Cone(apex, dirX, dirY, dirZ, length, Math.cos(angle), Math.sin(angle));
+    }
+
+    /**
+     * Get the position hits are ranked by distance to
+     */
+    BlockPos center();
+
+    /**
+     * Get the box enclosing the shape, before it is clamped to the world
+     */
+    BoundingBox getBox();
+
+    /**
+     * Check if the whole box is scanned, so its volume can be updated slab by slab as it moves
+     */
+    default boolean isBox() {
+        return false;
+    }
+
+    boolean contains(int x, int y, int z);
+
+    default boolean contains(BlockPos pos) {
+        return contains(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Check if any block of the chunk section may be inside the shape. May answer true for sections that are not.
+     */
+    boolean intersectsSection(int sectionX, int sectionY, int sectionZ);
+
+    /**
+     * Wrap a visitor so that it only sees ores inside the shape
+     */
+    default OreDetector.OreVisitor filter(OreDetector.OreVisitor visitor) {
+        return (oreType, x, y, z) -> {
+            if (contains(x, y, z)) {
+                visitor.visit(oreType, x, y, z);
+            }
+        };
+    }
+
+    record Cube(BlockPos center, int range) implements ScanShape {
+        @Override
+        public BoundingBox getBox() {
+            return new BoundingBox(
+                    center.getX() - range, center.getY() - range, center.getZ() - range,
+                    center.getX() + range, center.getY() + range, center.getZ() + range);
+        }
+
+        @Override
+        public boolean isBox() {
+            return true;
+        }
+
+        @Override
+        public boolean contains(int x, int y, int z) {
+            return Math.abs(x - center.getX()) <= range && Math.abs(y - center.getY()) <= range && Math.abs(z - center.getZ()) <= range;
+        }
+
+        @Override
+        public boolean intersectsSection(int sectionX, int sectionY, int sectionZ) {
+            return true;
+        }
+
+        @Override
+        public OreDetector.OreVisitor filter(OreDetector.OreVisitor visitor) {
+            // The scan bounds are the cube already
+            return visitor;
+        }
+    }
+
+    record Sphere(BlockPos center, int range) implements ScanShape {
+        @Override
+        public BoundingBox getBox() {
+            return new BoundingBox(
+                    center.getX() - range, center.getY() - range, center.getZ() - range,
+                    center.getX() + range, center.getY() + range, center.getZ() + range);
+        }
+
+        @Override
+        public boolean contains(int x, int y, int z) {
+            int dx = x - center.getX();
+            int dy = y - center.getY();
+            int dz = z - center.getZ();
+            return dx * dx + dy * dy + dz * dz <= range * range;
+        }
+
+        @Override
+        public boolean intersectsSection(int sectionX, int sectionY, int sectionZ) {
+            long dx = distanceToSection(center.getX(), sectionX);
+            long dy = distanceToSection(center.getY(), sectionY);
+            long dz = distanceToSection(center.getZ(), sectionZ);
+            return dx * dx + dy * dy + dz * dz <= (long) range * range;
+        }
+
+        private static long distanceToSection(int coordinate, int sectionCoordinate) {
+            int min = SectionPos.sectionToBlockCoord(sectionCoordinate);
+            return Math.max(0, Math.max(min - coordinate, coordinate - (min + 15)));
+        }
+    }
+
+    record Cone(BlockPos center, double dirX, double dirY, double dirZ, int length, double cos, double sin) implements ScanShape {
+        @Override
+        public BoundingBox getBox() {
+            // The cone lies between its apex and the disc that closes it
+            double capRadius = length * sin / cos;
+            double capX = center.getX() + dirX * length;
+            double capY = center.getY() + dirY * length;
+            double capZ = center.getZ() + dirZ * length;
+            double extentX = capRadius * Math.sqrt(Math.max(0, 1 - dirX * dirX));
+            double extentY = capRadius * Math.sqrt(Math.max(0, 1 - dirY * dirY));
+            double extentZ = capRadius * Math.sqrt(Math.max(0, 1 - dirZ * dirZ));
+            return new BoundingBox(
+                    Mth.floor(Math.min(center.getX(), capX - extentX)), Mth.floor(Math.min(center.getY(), capY - extentY)), Mth.floor(Math.min(center.getZ(), capZ - extentZ)),
+                    Mth.ceil(Math.max(center.getX(), capX + extentX)), Mth.ceil(Math.max(center.getY(), capY + extentY)), Mth.ceil(Math.max(center.getZ(), capZ + extentZ)));
+        }
+
+        @Override
+        public boolean contains(int x, int y, int z) {
+            double vx = x - center.getX();
+            double vy = y - center.getY();
+            double vz = z - center.getZ();
+            double along = vx * dirX + vy * dirY + vz * dirZ;
+            // Inside if within the length and within the angle of the axis
+            return along >= 0 && along <= length && along * along >= (vx * vx + vy * vy + vz * vz) * cos * cos;
+        }
+
+        @Override
+        public boolean intersectsSection(int sectionX, int sectionY, int sectionZ) {
+            // Test the ball around the section against the cone, which never misses a section that touches it
+            double vx = SectionPos.sectionToBlockCoord(sectionX, 8) - center.getX();
+            double vy = SectionPos.sectionToBlockCoord(sectionY, 8) - center.getY();
+            double vz = SectionPos.sectionToBlockCoord(sectionZ, 8) - center.getZ();
+            double along = vx * dirX + vy * dirY + vz * dirZ;
+            if (along < -SECTION_RADIUS || along > length + SECTION_RADIUS) {
+                return false;
+            }
+            double across = Math.sqrt(Math.max(0, vx * vx + vy * vy + vz * vz - along * along));
+            // Distance from the section center to the cone's side
+            return across * cos - along * sin <= SECTION_RADIUS;
+        }
+    }
+}
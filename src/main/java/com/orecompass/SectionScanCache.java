@@ -0,0 +1,179 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scan results per chunk section and ore set, shared by every compass in a level.
+ * Players mining the same area reuse each other's section results instead of reading the same blocks
+ * again, so the cost grows with the number of distinct areas rather than the number of players.
+ * Entries are dropped when a block in the section changes, when the chunk unloads, or when least recently used.
+ */
+public class SectionScanCache {
+    private static final Map<ResourceKey<Level>, SectionScanCache> CACHES = new HashMap<>();
+
+    private final int minSection;
+    private final int maxSection;
+    private final Long2ObjectLinkedOpenHashMap<Int2ObjectMap<SectionHits>> sections = new Long2ObjectLinkedOpenHashMap<>();
+
+    private SectionScanCache(Level level) {
+        this.minSection = level.getMinSection();
+        this.maxSection = level.getMaxSection();
+    }
+
+    /**
+     * Get the cache for a level, or null if the level is not cached (client levels, or cache disabled)
+     */
+    @Nullable
+    public static SectionScanCache get(Level level) {
+        if (Config.scanCacheSize <= 0 || !(level instanceof ServerLevel)) {
+            return null;
+        }
+        return CACHES.computeIfAbsent(level.dimension(), key -> new SectionScanCache(level));
+    }
+
+    /**
+     * Drop the cache of a level that is being unloaded
+     */
+    static void remove(Level level) {
+        CACHES.remove(level.dimension());
+    }
+
+    /**
+     * Drop the caches of all levels
+     */
+    static void clear() {
+        CACHES.clear();
+    }
+
+    /**
+     * Report every target ore of a chunk section inside the bounds, scanning the whole section on a cache miss
+     *
+     * @return The number of blocks read, which is 0 on a cache hit
+     */
+    public int visitSection(Level level, int sectionX, int sectionY, int sectionZ, BoundingBox bounds,
+                            OreMatcher matcher, OreDetector.OreVisitor visitor) {
+        long sectionKey = SectionPos.asLong(sectionX, sectionY, sectionZ);
+        SectionHits hits = find(sectionKey, matcher);
+        int reads = 0;
+
+        if (hits == null) {
+            LevelChunk chunk = OreDetector.getChunkForScan(level, sectionX, sectionZ);
+            if (chunk == null) {
+                return 0;
+            }
+            LevelChunkSection section = chunk.getSection(level.getSectionIndexFromSectionY(sectionY));
+            // Nothing to read if the palettes already rule out the matcher's ores
+            OreGenerationProfile filter = OreGenerationProfile.getFilter(level);
+            if (section.hasOnlyAir() || !section.maybeHas(matcher::matches) || (filter != null && !filter.mayHold(level, section, sectionX, sectionY, sectionZ, matcher))) {
+                return 0;
+            }
+
+            // Collect every ore of the whole section rather than just the wanted ores in range,
+            // so this one read serves any ore set and range that asks for the section later
+            OreMatcher allOres = OreMatcher.all();
+            BoundingBox sectionBounds = new BoundingBox(
+                    SectionPos.sectionToBlockCoord(sectionX), SectionPos.sectionToBlockCoord(sectionY), SectionPos.sectionToBlockCoord(sectionZ),
+                    SectionPos.sectionToBlockCoord(sectionX, 15), SectionPos.sectionToBlockCoord(sectionY, 15), SectionPos.sectionToBlockCoord(sectionZ, 15));
+            LongArrayList positions = new LongArrayList();
+            List<OreType> ores = new ArrayList<>();
+            reads = OreDetector.scanSection(section, sectionX, sectionY, sectionZ, sectionBounds, allOres, (oreType, x, y, z) -> {
+                positions.add(BlockPos.asLong(x, y, z));
+                ores.add(oreType);
+            });
+
+            hits = new SectionHits(positions.toLongArray(), ores.toArray(new OreType[0]));
+            put(sectionKey, allOres.getMask(), hits);
+        }
+
+        hits.visit(bounds, matcher, visitor);
+        return reads;
+    }
+
+    /**
+     * Get cached hits of a section that cover every ore of the matcher, or null on a miss
+     */
+    @Nullable
+    public SectionHits find(long sectionKey, OreMatcher matcher) {
+        Int2ObjectMap<SectionHits> byMask = sections.getAndMoveToLast(sectionKey);
+        if (byMask != null) {
+            int mask = matcher.getMask();
+            for (Int2ObjectMap.Entry<SectionHits> entry : byMask.int2ObjectEntrySet()) {
+                // An entry for a superset of the ores holds everything this matcher needs
+                if ((entry.getIntKey() & mask) == mask) {
+                    ScanMetrics.recordCacheHit();
+                    return entry.getValue();
+                }
+            }
+        }
+
+        ScanMetrics.recordCacheMiss();
+        return null;
+    }
+
+    private void put(long sectionKey, int mask, SectionHits hits) {
+        Int2ObjectMap<SectionHits> byMask = sections.getAndMoveToLast(sectionKey);
+        if (byMask == null) {
+            byMask = new Int2ObjectArrayMap<>();
+            sections.putAndMoveToLast(sectionKey, byMask);
+            while (sections.size() > Config.scanCacheSize) {
+                sections.removeFirst();
+            }
+        }
+        byMask.put(mask, hits);
+    }
+
+    /**
+     * Drop the results of the section holding a block that changed
+     */
+    public void invalidate(BlockPos pos) {
+        sections.remove(SectionPos.asLong(pos));
+    }
+
+    /**
+     * Drop the results of every section of a chunk column
+     */
+    public void unloadChunk(ChunkPos chunkPos) {
+        for (int sectionY = minSection; sectionY < maxSection; sectionY++) {
+            sections.remove(SectionPos.asLong(chunkPos.x, sectionY, chunkPos.z));
+        }
+    }
+
+    /**
+     * The ores found in one whole chunk section for one ore set
+     */
+    public record SectionHits(long[] positions, OreType[] ores) {
+
+        /**
+         * Report the hits of the matcher's ores that lie inside the bounds
+         */
+        public void visit(BoundingBox bounds, OreMatcher matcher, OreDetector.OreVisitor visitor) {
+            for (int i = 0; i < positions.length; i++) {
+                OreType oreType = ores[i];
+                int x = BlockPos.getX(positions[i]);
+                int y = BlockPos.getY(positions[i]);
+                int z = BlockPos.getZ(positions[i]);
+                if (matcher.includes(oreType) && bounds.isInside(x, y, z)) {
+                    visitor.visit(oreType, x, y, z);
+                }
+            }
+        }
+    }
+}
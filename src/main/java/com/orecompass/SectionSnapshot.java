@@ -0,0 +1,97 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+/**
+ * Private copy of the chunk sections a scan needs, so the scan can run off the server thread
+ * without touching live chunks. Only sections whose palette can hold a target ore are copied,
+ * and sections already in the {@link SectionScanCache} take their cached hits instead.
+ */
+public class SectionSnapshot implements OreDetector.OreSource {
+    private final Long2ObjectMap<PalettedContainer<BlockState>> sections;
+    private final Long2ObjectMap<SectionScanCache.SectionHits> cachedHits;
+
+    private SectionSnapshot(Long2ObjectMap<PalettedContainer<BlockState>> sections,
+                            Long2ObjectMap<SectionScanCache.SectionHits> cachedHits) {
+        this.sections = sections;
+        this.cachedHits = cachedHits;
+    }
+
+    /**
+     * Copy the sections inside the bounds that the shape touches and that can hold an ore of the matcher.
+     * Must run on the level's thread.
+     */
+    public static SectionSnapshot capture(Level level, BoundingBox bounds, ScanShape shape, OreMatcher matcher) {
+        Long2ObjectMap<PalettedContainer<BlockState>> sections = new Long2ObjectOpenHashMap<>();
+        Long2ObjectMap<SectionScanCache.SectionHits> cachedHits = new Long2ObjectOpenHashMap<>();
+        SectionScanCache cache = SectionScanCache.get(level);
+        OreGenerationProfile filter = OreGenerationProfile.getFilter(level);
+
+        for (int sectionX = SectionPos.blockToSectionCoord(bounds.minX()); sectionX <= SectionPos.blockToSectionCoord(bounds.maxX()); sectionX++) {
+            for (int sectionZ = SectionPos.blockToSectionCoord(bounds.minZ()); sectionZ <= SectionPos.blockToSectionCoord(bounds.maxZ()); sectionZ++) {
+                // Unloaded chunks can still be answered from the cache
+                LevelChunk chunk = OreDetector.getChunkForScan(level, sectionX, sectionZ);
+
+                for (int sectionY = SectionPos.blockToSectionCoord(bounds.minY()); sectionY <= SectionPos.blockToSectionCoord(bounds.maxY()); sectionY++) {
+                    if (!shape.intersectsSection(sectionX, sectionY, sectionZ)) {
+                        continue;
+                    }
+                    long sectionKey = SectionPos.asLong(sectionX, sectionY, sectionZ);
+                    SectionScanCache.SectionHits hits = cache != null ? cache.find(sectionKey, matcher) : null;
+                    if (hits != null) {
+                        cachedHits.put(sectionKey, hits);
+                        continue;
+                    }
+
+                    if (chunk == null) {
+                        continue;
+                    }
+                    LevelChunkSection section = chunk.getSection(level.getSectionIndexFromSectionY(sectionY));
+                    if (!section.hasOnlyAir() && section.maybeHas(matcher::matches) && (filter == null || filter.mayHold(level, section, sectionX, sectionY, sectionZ, matcher))) {
+                        sections.put(sectionKey, section.getStates().copy());
+                    }
+                }
+            }
+        }
+
+        return new SectionSnapshot(sections, cachedHits);
+    }
+
+    /**
+     * Get the number of sections that were copied
+     */
+    public int size() {
+        return sections.size();
+    }
+
+    /**
+     * Get the number of sections that were taken from the shared cache instead of copied
+     */
+    public int cachedSize() {
+        return cachedHits.size();
+    }
+
+    @Override
+    public int visitSection(int sectionX, int sectionY, int sectionZ, BoundingBox bounds, OreMatcher matcher, OreDetector.OreVisitor visitor) {
+        long sectionKey = SectionPos.asLong(sectionX, sectionY, sectionZ);
+        SectionScanCache.SectionHits hits = cachedHits.get(sectionKey);
+        if (hits != null) {
+            hits.visit(bounds, matcher, visitor);
+            return 0;
+        }
+
+        PalettedContainer<BlockState> states = sections.get(sectionKey);
+        if (states == null) {
+            return 0;
+        }
+        return OreDetector.scanStates(states, sectionX, sectionY, sectionZ, bounds, matcher, visitor);
+    }
+}
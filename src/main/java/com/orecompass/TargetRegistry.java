@@ -0,0 +1,63 @@
+package com.orecompass;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The current target of every compass tracker, by dimension and position.
+ * A block change at a target marks the trackers aiming at it, so compasses whose target nobody touched
+ * do not have to read it back from the world on every update.
+ */
+public class TargetRegistry {
+    private static final Map<ResourceKey<Level>, Long2ObjectMap<List<CompassTracker>>> TARGETS = new HashMap<>();
+
+    static void add(ResourceKey<Level> dimension, BlockPos pos, CompassTracker tracker) {
+        TARGETS.computeIfAbsent(dimension, key -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(pos.asLong(), key -> new ArrayList<>(1))
+                .add(tracker);
+    }
+
+    static void remove(ResourceKey<Level> dimension, BlockPos pos, CompassTracker tracker) {
+        Long2ObjectMap<List<CompassTracker>> targets = TARGETS.get(dimension);
+        if (targets == null) {
+            return;
+        }
+        long packedPos = pos.asLong();
+        List<CompassTracker> trackers = targets.get(packedPos);
+        if (trackers != null && trackers.remove(tracker) && trackers.isEmpty()) {
+            targets.remove(packedPos);
+        }
+    }
+
+    /**
+     * Mark every tracker aiming at the position, so its next update checks the target again
+     */
+    static void onBlockChanged(Level level, BlockPos pos) {
+        Long2ObjectMap<List<CompassTracker>> targets = TARGETS.get(level.dimension());
+        if (targets == null) {
+            return;
+        }
+        List<CompassTracker> trackers = targets.get(pos.asLong());
+        if (trackers != null) {
+            for (CompassTracker tracker : trackers) {
+                tracker.markTargetChanged();
+            }
+        }
+    }
+
+    static void remove(Level level) {
+        TARGETS.remove(level.dimension());
+    }
+
+    static void clear() {
+        TARGETS.clear();
+    }
+}
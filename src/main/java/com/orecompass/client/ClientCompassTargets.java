@@ -0,0 +1,61 @@
+package com.orecompass.client;
+
+import com.orecompass.CompassTargetPayload;
+import com.orecompass.CompassTracker;
+import com.orecompass.OreCompassItem;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.world.item.ItemStack;
+import net.neoforged.neoforge.network.handling.IPayloadContext;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compass targets the server sent, by holder and by compass tier, tuning and dowsing mode.
+ * Client setup hands {@link #handle} to {@link CompassTargetPayload}, so the common payload class never refers to this one.
+ */
+public class ClientCompassTargets {
+    private static final Long2ObjectMap<CompassTargetPayload> TARGETS = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Get the compass key of a stack, or -1 if it is not an Ore Compass
+     */
+    public static int keyOf(ItemStack stack) {
+        if (!(stack.getItem() instanceof OreCompassItem compassItem)) {
+            return -1;
+        }
+        return CompassTracker.keyOf(compassItem.getTier(), OreCompassItem.getTunedOre(stack), OreCompassItem.isDowsing(stack));
+    }
+
+    /**
+     * Combine a holder entity id and a compass key into one key
+     */
+    public static long holderKey(int holderId, int compassKey) {
+        return ((long) holderId << 32) | (compassKey & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the last target sent for the holder's compasses with the given key, or null if none is known
+     */
+    @Nullable
+    public static CompassTargetPayload get(int holderId, int compassKey) {
+        CompassTargetPayload target = TARGETS.get(holderKey(holderId, compassKey));
+        return target != null && target.hasTarget() ? target : null;
+    }
+
+    /**
+     * Forget the targets of a holder that is no longer in view; the server sends them again when it comes back
+     */
+    public static void forget(int holderId) {
+        TARGETS.long2ObjectEntrySet().removeIf(entry -> (int) (entry.getLongKey() >>> 32) == holderId);
+    }
+
+    public static void clear() {
+        TARGETS.clear();
+    }
+
+    public static void handle(CompassTargetPayload payload, IPayloadContext context) {
+        // Handlers run on the main thread
+        TARGETS.put(holderKey(payload.holderId(), payload.compassKey()), payload);
+    }
+}
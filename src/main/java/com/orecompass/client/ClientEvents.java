@@ -0,0 +1,28 @@
+package com.orecompass.client;
+
+import com.orecompass.OreCompass;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.world.entity.player.Player;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.client.event.ClientPlayerNetworkEvent;
+import net.neoforged.neoforge.event.entity.EntityLeaveLevelEvent;
+
+@EventBusSubscriber(modid = OreCompass.MODID, value = Dist.CLIENT)
+public class ClientEvents {
+
+    @SubscribeEvent
+    static void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        // Targets belong to the server that sent them
+        ClientCompassTargets.clear();
+    }
+
+    @SubscribeEvent
+    static void onEntityLeaveLevel(EntityLeaveLevelEvent event) {
+        // The local player keeps its id through respawns and dimension changes, and the server only resends changed targets
+        if (event.getLevel().isClientSide && event.getEntity() instanceof Player player && !(player instanceof LocalPlayer)) {
+            ClientCompassTargets.forget(player.getId());
+        }
+    }
+}
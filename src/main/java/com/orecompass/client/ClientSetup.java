@@ -1,5 +1,6 @@
 package com.orecompass.client;
 
+import com.orecompass.CompassTargetPayload;
 import com.orecompass.OreCompass;
 import net.minecraft.client.renderer.item.ItemProperties;
 import net.minecraft.resources.ResourceLocation;
@@ -15,6 +16,7 @@ public class ClientSetup {
 
     @SubscribeEvent
     public static void onClientSetup(FMLClientSetupEvent event) {
+        CompassTargetPayload.setClientHandler(ClientCompassTargets::handle);
         event.enqueueWork(() -> {
             ItemProperties.register(
                 OreCompass.BASIC_ORE_COMPASS.get(),
@@ -1,5 +1,6 @@
 package com.orecompass.client;
 
+import com.orecompass.CompassTargetPayload;
 import com.orecompass.OreCompass;
 import com.orecompass.OreCompassItem;
 import com.orecompass.OreType;
@@ -14,8 +15,19 @@ import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.fml.common.EventBusSubscriber;
 import net.neoforged.neoforge.client.event.RegisterGuiLayersEvent;
 
+import javax.annotation.Nullable;
+
 @EventBusSubscriber(modid = OreCompass.MODID, bus = EventBusSubscriber.Bus.MOD, value = Dist.CLIENT)
 public class OreCompassHudOverlay {
+    // One icon per ore, made on first use since items only exist once registries are frozen
+    private static final ItemStack[] ORE_ICONS = new ItemStack[OreType.values().length];
+
+    // The shown ore only changes with the compass or its target, so it is worked out again only then
+    private static int shownCompassKey = -1;
+    @Nullable
+    private static CompassTargetPayload shownTarget;
+    @Nullable
+    private static OreType shownOre;
 
     @SubscribeEvent
     public static void registerOverlay(RegisterGuiLayersEvent event) {
@@ -47,11 +59,15 @@ public class OreCompassHudOverlay {
         }
 
         // Get the tracked ore
-        OreType ore = OreCompassItem.getDetectedOre(compassStack);
-        if (ore == null) {
-            ore = OreCompassItem.getTunedOre(compassStack);
+        int compassKey = ClientCompassTargets.keyOf(compassStack);
+        CompassTargetPayload target = ClientCompassTargets.get(player.getId(), compassKey);
+        if (compassKey != shownCompassKey || target != shownTarget) {
+            shownCompassKey = compassKey;
+            shownTarget = target;
+            shownOre = target != null ? target.getOreType() : OreCompassItem.getTunedOre(compassStack);
         }
 
+        OreType ore = shownOre;
         if (ore == null) {
             return;
         }
@@ -64,7 +80,7 @@ public class OreCompassHudOverlay {
         int x = screenWidth - size - margin;
         int y = screenHeight - size - margin;
 
-        ItemStack oreBlockStack = new ItemStack(ore.getOreBlock());
+        ItemStack oreBlockStack = getIcon(ore);
 
         // Scale up to 32x32 (default is 16x16)
         guiGraphics.pose().pushPose();
@@ -73,4 +89,13 @@ public class OreCompassHudOverlay {
         guiGraphics.renderItem(oreBlockStack, 0, 0);
         guiGraphics.pose().popPose();
     }
+
+    private static ItemStack getIcon(OreType ore) {
+        ItemStack icon = ORE_ICONS[ore.ordinal()];
+        if (icon == null) {
+            icon = new ItemStack(ore.getOreBlock());
+            ORE_ICONS[ore.ordinal()] = icon;
+        }
+        return icon;
+    }
 }
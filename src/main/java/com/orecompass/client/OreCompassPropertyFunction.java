@@ -1,6 +1,8 @@
 package com.orecompass.client;
 
-import com.orecompass.OreCompassItem;
+import com.orecompass.CompassTargetPayload;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.client.renderer.item.ClampedItemPropertyFunction;
 import net.minecraft.core.BlockPos;
@@ -10,9 +12,17 @@ import net.minecraft.world.item.ItemStack;
 
 import javax.annotation.Nullable;
 
+/**
+ * Needle angle of an Ore Compass, called for every rendered compass every frame.
+ * Each holder gets its own needle per compass kind, so compasses on screen no longer fight over one wobble.
+ */
 public class OreCompassPropertyFunction implements ClampedItemPropertyFunction {
+    // Needles not rendered for this many ticks are forgotten
+    private static final int WOBBLE_EXPIRY_TICKS = 100;
 
-    private final WobbleState wobbleState = new WobbleState();
+    // Shared by the functions of all tiers, keyed by holder entity id and compass key
+    private static final Long2ObjectMap<WobbleState> WOBBLE_STATES = new Long2ObjectOpenHashMap<>();
+    private static long lastEvictionTick;
 
     @Override
     public float unclampedCall(ItemStack stack, @Nullable ClientLevel level, @Nullable LivingEntity entity, int seed) {
@@ -20,26 +30,47 @@ public class OreCompassPropertyFunction implements ClampedItemPropertyFunction {
             return 0.0f;
         }
 
-        BlockPos targetPos = OreCompassItem.getTargetPos(stack);
+        // Targets are sent per holder, so compasses in other players' hands point at their own ores
+        int compassKey = ClientCompassTargets.keyOf(stack);
+        CompassTargetPayload target = ClientCompassTargets.get(entity.getId(), compassKey);
 
-        if (targetPos == null) {
+        if (target == null) {
             return getSpinningValue(level);
         }
 
-        double targetAngle = getAngleToTarget(entity, targetPos);
+        double targetAngle = getAngleToTarget(entity, BlockPos.getX(target.targetPos()), BlockPos.getZ(target.targetPos()));
         double playerRotation = entity.getYRot();
         double relativeAngle = targetAngle - playerRotation;
 
         relativeAngle = normalizeAngle(relativeAngle);
 
-        double wobbledAngle = wobbleState.update(level.getGameTime(), relativeAngle);
+        double wobbledAngle = getWobbleState(level.getGameTime(), entity, compassKey).update(level.getGameTime(), relativeAngle);
 
         return (float) (wobbledAngle / 360.0);
     }
 
-    private double getAngleToTarget(Entity entity, BlockPos target) {
-        double dx = target.getX() + 0.5 - entity.getX();
-        double dz = target.getZ() + 0.5 - entity.getZ();
+    /**
+     * Get the needle of a holder's compass kind, forgetting needles that have not been rendered for a while
+     */
+    private static WobbleState getWobbleState(long gameTime, Entity holder, int compassKey) {
+        // Game time restarts when joining another world, so any jump back also clears old needles
+        if (gameTime - lastEvictionTick >= WOBBLE_EXPIRY_TICKS || gameTime < lastEvictionTick) {
+            WOBBLE_STATES.values().removeIf(state -> gameTime - state.lastUpdateTick >= WOBBLE_EXPIRY_TICKS || gameTime < state.lastUpdateTick);
+            lastEvictionTick = gameTime;
+        }
+
+        long key = ClientCompassTargets.holderKey(holder.getId(), compassKey);
+        WobbleState state = WOBBLE_STATES.get(key);
+        if (state == null) {
+            state = new WobbleState();
+            WOBBLE_STATES.put(key, state);
+        }
+        return state;
+    }
+
+    private double getAngleToTarget(Entity entity, int targetX, int targetZ) {
+        double dx = targetX + 0.5 - entity.getX();
+        double dz = targetZ + 0.5 - entity.getZ();
         // atan2 returns angle where 0 = east, 90 = north
         // Minecraft yaw: 0 = south, 90 = west, 180 = north, 270 = east
         double angle = Math.toDegrees(Math.atan2(-dx, dz));